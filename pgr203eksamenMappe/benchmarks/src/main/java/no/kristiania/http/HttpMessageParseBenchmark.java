@@ -0,0 +1,71 @@
+package no.kristiania.http;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Parsing a request from memory, so only the parser is measured and not the network
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpMessageParseBenchmark {
+
+    private static final String HEADERS = "Host: localhost:8080\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/86.0 Safari/537.36\r\n" +
+            "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+            "Accept-Language: nb-NO,nb;q=0.9,no;q=0.8,en;q=0.7\r\n";
+
+    // The size of the form body in bytes. 0 is a GET without a body
+    @Param({"0", "64", "4096"})
+    public int bodySize;
+
+    private byte[] request;
+    private ByteBuffer buffer;
+    private HttpMessageParser parser;
+
+    @Setup
+    public void setUp() {
+        StringBuilder body = new StringBuilder("first_name=Even&last_name=Larsen&email_address=even%40even.no");
+        while (body.length() < bodySize) {
+            body.append("&note=").append("x".repeat(Math.min(50, bodySize)));
+        }
+        String message = bodySize == 0
+                ? "GET /api/workers?after=100&limit=50 HTTP/1.1\r\n" + HEADERS + "\r\n"
+                : "POST /api/newWorker HTTP/1.1\r\n" + HEADERS +
+                  "Content-Type: application/x-www-form-urlencoded\r\n" +
+                  "Content-Length: " + body.toString().getBytes(StandardCharsets.UTF_8).length + "\r\n\r\n" + body;
+        request = message.getBytes(StandardCharsets.UTF_8);
+        buffer = ByteBuffer.wrap(request);
+        parser = new HttpMessageParser();
+    }
+
+    // What the nio engine does: the bytes are already in a buffer
+    @Benchmark
+    public HttpMessage parseBuffer() throws IOException {
+        buffer.clear();
+        return parser.parse(buffer);
+    }
+
+    // What the blocking engine does: read from a stream into the parser
+    @Benchmark
+    public HttpMessage readStream() throws IOException {
+        return new HttpMessageReader(new ByteArrayInputStream(request)).readMessage();
+    }
+}
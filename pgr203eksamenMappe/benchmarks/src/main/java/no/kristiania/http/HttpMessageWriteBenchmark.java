@@ -0,0 +1,56 @@
+package no.kristiania.http;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+// Writing a response to a socket that only collects the bytes in memory. Without a request being handled
+// (no HttpExchange) nothing is compressed, so this is the head and the copying of the body
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpMessageWriteBenchmark {
+
+    @Param({"16", "4096", "65536"})
+    public int bodySize;
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private final Socket socket = new Socket() {
+        @Override
+        public OutputStream getOutputStream() {
+            return output;
+        }
+    };
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        body = "<li>Even Larsen</li>".repeat(bodySize / 20 + 1).substring(0, bodySize).getBytes();
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        output.reset();
+        HttpMessage response = new HttpMessage(body);
+        response.getHeaders().put("Content-Type", "text/html");
+        response.write(socket);
+        return output.size();
+    }
+}
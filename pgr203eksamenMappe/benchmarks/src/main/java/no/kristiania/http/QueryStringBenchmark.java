@@ -0,0 +1,53 @@
+package no.kristiania.http;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryStringBenchmark {
+
+    @Param({"2", "10", "50"})
+    public int parameterCount;
+
+    private String queryString;
+    private QueryString parsed;
+
+    @Setup
+    public void setUp() {
+        StringBuilder query = new StringBuilder("workerId=1");
+        for (int i = 1; i < parameterCount; i++) {
+            query.append("&parameter").append(i).append("=value").append(i);
+        }
+        queryString = query.toString();
+        parsed = new QueryString(queryString);
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        QueryString query = new QueryString(queryString);
+        blackhole.consume(query.getParameter("workerId"));
+        blackhole.consume(query.getParameterValues("workerId"));
+    }
+
+    @Benchmark
+    public String serialize() {
+        return parsed.getQueryString();
+    }
+}
@@ -0,0 +1,60 @@
+package no.kristiania.http;
+
+import no.kristiania.database.Worker;
+import no.kristiania.database.WorkerDao;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Rendering the <option> list for /api/workersOptions. The DAO returns a list from memory, so the database
+// is not part of the measurement
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorkerOptionsBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int workerCount;
+
+    private WorkerOptionsController controller;
+
+    @Setup
+    public void setUp() {
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 1; i <= workerCount; i++) {
+            Worker worker = new Worker();
+            worker.setId(i);
+            worker.setFirstName(i % 10 == 0 ? "Øystein <" + i + ">" : "Even" + i);
+            worker.setLastName("Larsen");
+            worker.setEmail("even" + i + "@even.no");
+            workers.add(worker);
+        }
+        controller = new WorkerOptionsController(new WorkerDao(null) {
+            @Override
+            public List<Worker> list() {
+                return workers;
+            }
+        });
+    }
+
+    @Benchmark
+    public String render() throws SQLException {
+        return controller.getBody();
+    }
+}
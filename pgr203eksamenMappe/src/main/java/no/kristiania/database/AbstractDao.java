@@ -1,25 +1,49 @@
 package no.kristiania.database;
 
 import javax.sql.DataSource;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public abstract class AbstractDao<T> {
     protected DataSource dataSource;
+    // null when reads should always go to the database
+    protected final EntityCache<T> cache;
 
     public AbstractDao(DataSource dataSource) {
+        this(dataSource, null);
+    }
+
+    public AbstractDao(DataSource dataSource, EntityCache<T> cache) {
         this.dataSource = dataSource;
+        this.cache = cache;
     }
 
+    // The caller gets its own copy, so it can change it (and update it) without changing the cache
     protected T retrieve(Integer id, String sql) throws SQLException {
+        if (cache != null) {
+            T cached = cache.get(id);
+            if (cached != null) {
+                return copy(cached);
+            }
+        }
+        long version = cache != null ? cache.version() : 0;
         try (Connection connection = dataSource.getConnection()) {
-            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            try (PreparedStatement statement = prepareStatement(connection, sql)) {
                 statement.setInt(1, id);
                 try (ResultSet rs = statement.executeQuery()) {
                     if (rs.next()) {
-                        return mapRow(rs);
+                        T entity = mapRow(rs);
+                        if (cache != null) {
+                            cache.putLoaded(id, copy(entity), version);
+                        }
+                        return entity;
                     } else {
                         return null;
                     }
@@ -28,5 +52,134 @@ public abstract class AbstractDao<T> {
         }
     }
 
+    // With a cache the list is shared between callers - the list and the entities in it must not be modified
+    protected List<T> list(String sql) throws SQLException {
+        if (cache != null) {
+            List<T> cached = cache.getList();
+            if (cached != null) {
+                return cached;
+            }
+        }
+        long version = cache != null ? cache.version() : 0;
+        try (Connection connection = dataSource.getConnection()) {
+            try (PreparedStatement statement = prepareStatement(connection, sql)) {
+                try (ResultSet rs = statement.executeQuery()) {
+                    List<T> entities = new ArrayList<>();
+                    while (rs.next()) {
+                        entities.add(mapRow(rs));
+                    }
+                    if (cache != null) {
+                        entities = Collections.unmodifiableList(entities);
+                        cache.putLoadedList(entities, version);
+                    }
+                    return entities;
+                }
+            }
+        }
+    }
+
+    // The list() from the cache, or null when it isn't cached (or there is no cache). Must not be modified
+    public List<T> cachedList() {
+        return cache != null ? cache.getList() : null;
+    }
+
+    // All rows, in id order
+    public abstract List<T> list() throws SQLException;
+
+    // All rows in id order, one at a time
+    public abstract void forEach(int fetchSize, RowCallback<T> callback) throws SQLException, IOException;
+
+    // At most limit rows with a higher id than after, ordered by id
+    public abstract List<T> listPage(int after, int limit) throws SQLException;
+
+    // One page, in id order, of the rows after the given id. The sql has two parameters: the id and the limit
+    protected List<T> listPage(String sql, int after, int limit) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            try (PreparedStatement statement = prepareStatement(connection, sql)) {
+                statement.setInt(1, after);
+                statement.setInt(2, limit);
+                try (ResultSet rs = statement.executeQuery()) {
+                    List<T> entities = new ArrayList<>();
+                    while (rs.next()) {
+                        entities.add(mapRow(rs));
+                    }
+                    return entities;
+                }
+            }
+        }
+    }
+
+    // Hands the rows to the callback one at a time instead of collecting them in a list, so memory use doesn't
+    // grow with the table. The database sends fetchSize rows at a time.
+    // The sql must select the same rows as list(): if the table fits in the cache, the rows become the cached list
+    protected void forEach(String sql, int fetchSize, RowCallback<T> callback) throws SQLException, IOException {
+        long version = cache != null ? cache.version() : 0;
+        List<T> entities = cache != null ? new ArrayList<>() : null;
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            // Postgres only reads with a cursor (and uses the fetch size) inside a transaction
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = prepareStatement(connection, sql)) {
+                statement.setFetchSize(fetchSize);
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        T entity = mapRow(rs);
+                        if (entities != null && entities.size() <= cache.getMaxSize()) {
+                            entities.add(entity);
+                        }
+                        callback.accept(entity);
+                    }
+                }
+            } finally {
+                connection.rollback();
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+        if (entities != null) {
+            // putLoadedList() ignores a list that is larger than the cache
+            cache.putLoadedList(Collections.unmodifiableList(entities), version);
+        }
+    }
+
+    // Call after an insert or update, so the cache has the new version of the entity
+    protected void written(Integer id, T entity) {
+        if (cache != null) {
+            cache.written(id, copy(entity));
+        }
+    }
+
+    // Call after an update where the new row isn't known, so the next read goes to the database
+    protected void invalidate(Integer id) {
+        if (cache != null) {
+            cache.invalidate(id);
+        }
+    }
+
+    // Call after inserting many rows at once. They are not put in the cache, that would push out everything else
+    protected void writtenMany() {
+        if (cache != null) {
+            cache.invalidateList();
+        }
+    }
+
+    public EntityCache<T> getCache() {
+        return cache;
+    }
+
+    // With a PooledDataSource each SQL string is only prepared once per connection, and then taken from
+    // the connection's statement cache. Closing the statement gives it back to the cache
+    protected PreparedStatement prepareStatement(Connection connection, String sql) throws SQLException {
+        return prepareStatement(connection, sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    protected PreparedStatement prepareStatement(Connection connection, String sql, int autoGeneratedKeys) throws SQLException {
+        if (connection instanceof PooledDataSource.StatementCaching) {
+            return ((PooledDataSource.StatementCaching) connection).prepareCached(sql, autoGeneratedKeys);
+        }
+        return connection.prepareStatement(sql, autoGeneratedKeys);
+    }
+
     protected abstract T mapRow(ResultSet rs) throws SQLException;
+
+    protected abstract T copy(T entity);
 }
@@ -0,0 +1,159 @@
+package no.kristiania.database;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Entities read from the database, by id, plus the last result of list(). Entries are dropped after
+// ttl milliseconds, and the least recently used are dropped when there are more than maxSize.
+// The DAO that owns the cache updates it when it writes, so only writes from elsewhere can be up to ttl old
+public class EntityCache<T> {
+
+    private final int maxSize;
+    private final long ttl;
+    // Counts writes. A value loaded from the database is only stored if no write happened while it was loaded
+    private final AtomicLong version = new AtomicLong();
+    // accessOrder = true: iteration goes from least to most recently used
+    private final LinkedHashMap<Integer, CachedValue<T>> entities = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, CachedValue<T>> eldest) {
+            if (size() > EntityCache.this.maxSize) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    };
+    private volatile CachedValue<List<T>> list;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public EntityCache(int maxSize, long ttl) {
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+    }
+
+    // Returns null if the entity is not cached or has expired
+    public T get(Integer id) {
+        synchronized (entities) {
+            CachedValue<T> entry = entities.get(id);
+            if (entry != null && !entry.isExpired()) {
+                hits.increment();
+                return entry.value;
+            }
+            if (entry != null) {
+                entities.remove(id);
+                evictions.increment();
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    public List<T> getList() {
+        CachedValue<List<T>> entry = list;
+        if (entry != null && !entry.isExpired()) {
+            hits.increment();
+            return entry.value;
+        }
+        misses.increment();
+        return null;
+    }
+
+    // Call before reading from the database, and pass the value to putLoaded()/putLoadedList()
+    public long version() {
+        return version.get();
+    }
+
+    public void putLoaded(Integer id, T entity, long loadedVersion) {
+        synchronized (entities) {
+            if (version.get() == loadedVersion) {
+                entities.put(id, new CachedValue<>(entity, ttl));
+            }
+        }
+    }
+
+    public void putLoadedList(List<T> entities, long loadedVersion) {
+        if (entities.size() > maxSize) {
+            return;
+        }
+        synchronized (this.entities) {
+            if (version.get() == loadedVersion) {
+                list = new CachedValue<>(entities, ttl);
+            }
+        }
+    }
+
+    // After an insert or update: the entity is now this, and any cached list is out of date
+    public void written(Integer id, T entity) {
+        synchronized (entities) {
+            version.incrementAndGet();
+            entities.put(id, new CachedValue<>(entity, ttl));
+            list = null;
+        }
+    }
+
+    public void invalidate(Integer id) {
+        synchronized (entities) {
+            version.incrementAndGet();
+            entities.remove(id);
+            list = null;
+        }
+    }
+
+    // After inserts that are not cached one by one, like a bulk import: only the list is out of date
+    public void invalidateList() {
+        synchronized (entities) {
+            version.incrementAndGet();
+            list = null;
+        }
+    }
+
+    public void clear() {
+        synchronized (entities) {
+            version.incrementAndGet();
+            entities.clear();
+            list = null;
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int size() {
+        synchronized (entities) {
+            return entities.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private static class CachedValue<V> {
+        private final V value;
+        private final long expires;
+
+        CachedValue(V value, long ttl) {
+            this.value = value;
+            this.expires = System.currentTimeMillis() + ttl;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expires;
+        }
+    }
+}
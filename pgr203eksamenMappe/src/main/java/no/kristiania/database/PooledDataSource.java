@@ -0,0 +1,524 @@
+package no.kristiania.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Keeps database connections open and lends them out, so a query doesn't have to connect (TCP + login) first.
+// Closing a connection from getConnection() gives it back to the pool instead of closing it
+public class PooledDataSource implements DataSource, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PooledDataSource.class);
+
+    // The objects a connection hands out that can run into a connection error. They are wrapped, so their errors
+    // mark the connection as broken too
+    private static final Set<Class<?>> WATCHED_TYPES = Set.of(Statement.class, PreparedStatement.class, CallableStatement.class, ResultSet.class);
+
+    private final DataSource target;
+
+    private int minSize = 2;
+    private int maxSize = 10;
+    // Milliseconds to wait for a free connection before giving up
+    private long acquireTimeout = 5000;
+    // Connections that have been idle for longer than this are closed (down to minSize)
+    private long idleTimeout = 60_000;
+    // Connections that have been idle for longer than this are checked with isValid() before they are lent out
+    private long validationInterval = 1000;
+    private int validationTimeoutSeconds = 2;
+    // Prepared statements kept open per connection (0 turns the cache off)
+    private int statementCacheSize = 50;
+
+    // Most recently used first, so the connections we keep are the ones that are in use
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    // Created with the first getConnection, so setMaxSize can be called before that
+    private volatile Semaphore permits;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger total = new AtomicInteger();
+    private Thread evictor;
+    private volatile boolean closed;
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Long::max, 0);
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder invalid = new LongAdder();
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+
+    public PooledDataSource(DataSource target) {
+        this.target = target;
+    }
+
+    public static PooledDataSource fromProperties(DataSource target, Properties properties) {
+        PooledDataSource pool = new PooledDataSource(target);
+        pool.setMinSize(intProperty(properties, "dataSource.pool.minSize", pool.getMinSize()));
+        pool.setMaxSize(intProperty(properties, "dataSource.pool.maxSize", pool.getMaxSize()));
+        pool.setAcquireTimeout(intProperty(properties, "dataSource.pool.acquireTimeout", (int) pool.getAcquireTimeout()));
+        pool.setIdleTimeout(intProperty(properties, "dataSource.pool.idleTimeout", (int) pool.getIdleTimeout()));
+        pool.setValidationInterval(intProperty(properties, "dataSource.pool.validationInterval", (int) pool.getValidationInterval()));
+        pool.setStatementCacheSize(intProperty(properties, "dataSource.pool.statementCacheSize", pool.getStatementCacheSize()));
+        return pool;
+    }
+
+    private static int intProperty(Properties properties, String name, int defaultValue) {
+        String value = properties.getProperty(name);
+        return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        // Only the first call has to take the lock in start()
+        Semaphore permits = this.permits;
+        if (permits == null) {
+            permits = start();
+        }
+        long startTime = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLTransientConnectionException("No database connection available after " + acquireTimeout + " ms ("
+                        + active.get() + " of " + maxSize + " in use)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        long waited = System.nanoTime() - startTime;
+        waitNanos.add(waited);
+        maxWaitNanos.accumulate(waited);
+        acquired.increment();
+
+        try {
+            PooledConnection connection = takeIdleConnection();
+            if (connection == null) {
+                connection = openConnection();
+            }
+            active.incrementAndGet();
+            Lease lease = new Lease(connection);
+            lease.proxy = (Connection) Proxy.newProxyInstance(PooledDataSource.class.getClassLoader(),
+                    new Class<?>[] { Connection.class, StatementCaching.class }, lease);
+            return lease.proxy;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection takeIdleConnection() {
+        PooledConnection candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            if (System.currentTimeMillis() - candidate.idleSince < validationInterval || isValid(candidate.connection)) {
+                return candidate;
+            }
+            invalid.increment();
+            discard(candidate);
+        }
+        return null;
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection openConnection() throws SQLException {
+        Connection connection = target.getConnection();
+        total.incrementAndGet();
+        created.increment();
+        return new PooledConnection(connection, new StatementCache(statementCacheSize, statementHits, statementMisses));
+    }
+
+    private void release(PooledConnection pooledConnection, boolean broken) {
+        active.decrementAndGet();
+        Connection connection = pooledConnection.connection;
+        try {
+            if (broken || closed || connection.isClosed()) {
+                discard(pooledConnection);
+                return;
+            }
+            // The next user should get the connection like it would get a new one
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            pooledConnection.statementCache.releaseAll();
+            pooledConnection.idleSince = System.currentTimeMillis();
+            idle.addFirst(pooledConnection);
+        } catch (SQLException e) {
+            discard(pooledConnection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(PooledConnection pooledConnection) {
+        total.decrementAndGet();
+        pooledConnection.statementCache.close();
+        try {
+            pooledConnection.connection.close();
+        } catch (SQLException e) {
+            logger.warn("Failed to close database connection", e);
+        }
+    }
+
+    private synchronized Semaphore start() {
+        if (permits != null) {
+            return permits;
+        }
+        permits = new Semaphore(maxSize, true);
+        evictor = new Thread(this::evictIdleConnections, "connection-pool-evictor");
+        evictor.setDaemon(true);
+        evictor.start();
+        return permits;
+    }
+
+    // Closes connections that have been idle too long, and opens new ones to keep minSize ready
+    private void evictIdleConnections() {
+        while (!closed) {
+            try {
+                Thread.sleep(Math.max(100, Math.min(idleTimeout, 10_000) / 2));
+            } catch (InterruptedException e) {
+                return;
+            }
+            evictIdleConnections(System.currentTimeMillis());
+            while (!closed && total.get() < minSize && permits.tryAcquire()) {
+                try {
+                    idle.addLast(openConnection());
+                } catch (SQLException e) {
+                    logger.warn("Failed to open database connection", e);
+                    break;
+                } finally {
+                    permits.release();
+                }
+            }
+        }
+    }
+
+    void evictIdleConnections(long now) {
+        // The oldest connections are at the end
+        Iterator<PooledConnection> iterator = idle.descendingIterator();
+        while (iterator.hasNext() && total.get() > minSize) {
+            PooledConnection candidate = iterator.next();
+            if (now - candidate.idleSince > idleTimeout && idle.removeFirstOccurrence(candidate)) {
+                evicted.increment();
+                discard(candidate);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (evictor != null) {
+            evictor.interrupt();
+        }
+        PooledConnection candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            discard(candidate);
+        }
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+
+    public int getTotal() {
+        return total.get();
+    }
+
+    public long getAcquired() {
+        return acquired.sum();
+    }
+
+    public double getAverageWaitMillis() {
+        long count = acquired.sum();
+        return count == 0 ? 0 : waitNanos.sum() / 1_000_000.0 / count;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public long getCreated() {
+        return created.sum();
+    }
+
+    public long getEvicted() {
+        return evicted.sum();
+    }
+
+    public long getInvalid() {
+        return invalid.sum();
+    }
+
+    public long getStatementHits() {
+        return statementHits.sum();
+    }
+
+    public long getStatementMisses() {
+        return statementMisses.sum();
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    // Must be set before the first connection is taken
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public long getAcquireTimeout() {
+        return acquireTimeout;
+    }
+
+    public void setAcquireTimeout(long acquireTimeout) {
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public long getValidationInterval() {
+        return validationInterval;
+    }
+
+    public void setValidationInterval(long validationInterval) {
+        this.validationInterval = validationInterval;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("All pooled connections use the same user");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return target.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        target.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        target.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return target.getLoginTimeout();
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return target.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return target.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || target.isWrapperFor(iface);
+    }
+
+    // A connection to the database, with the statements that have been prepared on it
+    private static class PooledConnection {
+        private final Connection connection;
+        private final StatementCache statementCache;
+        private long idleSince;
+
+        PooledConnection(Connection connection, StatementCache statementCache) {
+            this.connection = connection;
+            this.statementCache = statementCache;
+            idleSince = System.currentTimeMillis();
+        }
+    }
+
+    // Implemented by the connections from getConnection(), so AbstractDao can use the statement cache
+    interface StatementCaching {
+        PreparedStatement prepareCached(String sql, int autoGeneratedKeys) throws SQLException;
+    }
+
+    // One loan of a connection. After close() the borrower can't use it anymore, even if it keeps the reference
+    private class Lease implements InvocationHandler {
+        private final PooledConnection pooledConnection;
+        private final Connection connection;
+        // What the borrower got from getConnection(). Statement.getConnection() must return this, not the real one
+        private Connection proxy;
+        private boolean released;
+        private boolean broken;
+
+        Lease(PooledConnection pooledConnection) {
+            this.pooledConnection = pooledConnection;
+            this.connection = pooledConnection.connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!released) {
+                        released = true;
+                        release(pooledConnection, broken);
+                    }
+                    return null;
+                case "isClosed":
+                    return released || connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled " + connection;
+            }
+            if (released) {
+                throw new SQLException("Connection has been returned to the pool");
+            }
+            try {
+                if (method.getName().equals("prepareCached")) {
+                    PreparedStatement statement = statementCacheSize <= 0
+                            ? connection.prepareStatement((String) args[0], (Integer) args[1])
+                            : pooledConnection.statementCache.prepare(connection, (String) args[0], (Integer) args[1]);
+                    return watch(PreparedStatement.class, statement, null);
+                }
+                return watch(method.getReturnType(), method.invoke(connection, args), null);
+            } catch (InvocationTargetException e) {
+                throw checkBroken(e.getCause());
+            } catch (SQLException e) {
+                throw checkBroken(e);
+            }
+        }
+
+        // SQLState class 08 is a connection error - don't give this connection to anyone else
+        private Throwable checkBroken(Throwable e) {
+            if (e instanceof SQLException) {
+                String sqlState = ((SQLException) e).getSQLState();
+                broken |= sqlState != null && sqlState.startsWith("08");
+            }
+            return e;
+        }
+
+        // statement is the proxy of the statement that returned the result, if it did
+        private Object watch(Class<?> type, Object result, Object statement) {
+            if (result == null || !WATCHED_TYPES.contains(type)) {
+                return result;
+            }
+            return Proxy.newProxyInstance(PooledDataSource.class.getClassLoader(), new Class<?>[] { type }, new Watcher(result, statement));
+        }
+
+        // Passes the calls to a statement or result set on, and looks at the errors from it. Like the connection,
+        // it can't be used after the connection has gone back to the pool
+        private class Watcher implements InvocationHandler {
+            private final Object target;
+            // For a result set: the statement proxy it came from
+            private final Object statement;
+
+            Watcher(Object target, Object statement) {
+                this.target = target;
+                this.statement = statement;
+            }
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                }
+                if (released) {
+                    switch (method.getName()) {
+                        // The pool has already given back the statements of the connection
+                        case "close":
+                            return null;
+                        case "isClosed":
+                            return true;
+                    }
+                    throw new SQLException("Connection has been returned to the pool");
+                }
+                switch (method.getName()) {
+                    case "getConnection":
+                        return Lease.this.proxy;
+                    case "getStatement":
+                        if (statement != null) {
+                            return statement;
+                        }
+                }
+                try {
+                    return watch(method.getReturnType(), method.invoke(target, args), target instanceof Statement ? proxy : null);
+                } catch (InvocationTargetException e) {
+                    throw checkBroken(e.getCause());
+                }
+            }
+        }
+    }
+}
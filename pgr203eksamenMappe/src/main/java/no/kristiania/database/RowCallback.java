@@ -0,0 +1,7 @@
+package no.kristiania.database;
+
+import java.io.IOException;
+
+public interface RowCallback<T> {
+    void accept(T row) throws IOException;
+}
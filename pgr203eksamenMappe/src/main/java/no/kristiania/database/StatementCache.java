@@ -0,0 +1,173 @@
+package no.kristiania.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// The prepared statements of one pooled connection, keyed by SQL. The database parses and plans a
+// statement once, and after that it is reused every time a DAO runs the same SQL on this connection.
+// Holds at most maxSize statements; the least recently used is closed when there is no more room
+class StatementCache {
+
+    private final int maxSize;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    // Statements that were pushed out while they were in use. Each is closed when its borrower closes it,
+    // or when the connection goes back to the pool
+    private final List<CachedStatement> evicted = new ArrayList<>();
+    // accessOrder = true: iteration goes from least to most recently used
+    private final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+            if (size() > StatementCache.this.maxSize) {
+                CachedStatement statement = eldest.getValue();
+                if (statement.inUse) {
+                    // Closing it would close the result set someone is reading
+                    statement.evicted = true;
+                    evicted.add(statement);
+                } else {
+                    statement.closeQuietly();
+                }
+                return true;
+            }
+            return false;
+        }
+    };
+
+    StatementCache(int maxSize, LongAdder hits, LongAdder misses) {
+        this.maxSize = maxSize;
+        this.hits = hits;
+        this.misses = misses;
+    }
+
+    // Closing the returned statement gives it back to the cache
+    PreparedStatement prepare(Connection connection, String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys + ":" + sql;
+        CachedStatement cached = statements.get(key);
+        if (cached != null && cached.inUse) {
+            // The same SQL is already open on this connection (like a query inside a loop over another) - don't share it
+            misses.increment();
+            return connection.prepareStatement(sql, autoGeneratedKeys);
+        }
+        if (cached == null) {
+            misses.increment();
+            cached = new CachedStatement(connection.prepareStatement(sql, autoGeneratedKeys));
+            statements.put(key, cached);
+        } else {
+            hits.increment();
+        }
+        cached.inUse = true;
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, new StatementLease(cached));
+    }
+
+    // When the connection goes back to the pool, statements the borrower forgot to close can be used again
+    void releaseAll() {
+        for (CachedStatement cached : statements.values()) {
+            if (cached.inUse) {
+                cached.reset();
+            }
+        }
+        closeEvicted();
+    }
+
+    void close() {
+        for (CachedStatement cached : statements.values()) {
+            cached.closeQuietly();
+        }
+        statements.clear();
+        closeEvicted();
+    }
+
+    private void closeEvicted() {
+        for (CachedStatement cached : evicted) {
+            cached.closeQuietly();
+        }
+        evicted.clear();
+    }
+
+    int size() {
+        return statements.size();
+    }
+
+    private static class CachedStatement {
+        private final PreparedStatement statement;
+        private boolean inUse;
+        // No longer in the cache, so it is closed instead of reused when the borrower is done
+        private boolean evicted;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        void release() {
+            if (evicted) {
+                inUse = false;
+                closeQuietly();
+            } else {
+                reset();
+            }
+        }
+
+        void reset() {
+            inUse = false;
+            try {
+                statement.clearParameters();
+            } catch (SQLException ignored) {
+                // It will fail again the next time it is used
+            }
+        }
+
+        void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException ignored) {
+                // The connection is probably gone already
+            }
+        }
+    }
+
+    private static class StatementLease implements InvocationHandler {
+        private final CachedStatement cached;
+        private boolean closed;
+
+        StatementLease(CachedStatement cached) {
+            this.cached = cached;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        cached.release();
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || cached.statement.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+            }
+            if (closed) {
+                throw new SQLException("Statement is closed");
+            }
+            try {
+                return method.invoke(cached.statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package no.kristiania.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A task and the workers assigned to it, for the task overview
+public class TaskWithWorkers {
+    private final WorkerTask task;
+    private final List<Worker> workers = new ArrayList<>();
+
+    public TaskWithWorkers(WorkerTask task) {
+        this.task = task;
+    }
+
+    public WorkerTask getTask() {
+        return task;
+    }
+
+    public List<Worker> getWorkers() {
+        return workers;
+    }
+
+    public int getWorkerCount() {
+        return workers.size();
+    }
+}
@@ -6,6 +6,8 @@ public class Worker {
     private Integer id;
     private String lastName;
     private Integer taskId;
+    // Counts the updates of the row, so an update based on an old read can be detected
+    private int version;
 
     public void setFirstName(String firstName) {
         this.firstName = firstName;
@@ -46,4 +48,12 @@ public class Worker {
     public void setTaskId(Integer taskId) {
         this.taskId = taskId;
     }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
 }
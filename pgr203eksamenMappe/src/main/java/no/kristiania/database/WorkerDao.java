@@ -1,19 +1,27 @@
 package no.kristiania.database;
 
 import javax.sql.DataSource;
+import java.io.IOException;
 import java.sql.*;
-import java.util.ArrayList;
 import java.util.List;
 
 public class WorkerDao extends AbstractDao<Worker> {
 
+    // Rows per executeBatch. Larger batches mean fewer round trips, but more memory on both sides
+    private static final int INSERT_BATCH_SIZE = 1000;
+
     public WorkerDao(DataSource dataSource) {
         super(dataSource);
 
     }
+
+    public WorkerDao(DataSource dataSource, EntityCache<Worker> cache) {
+        super(dataSource, cache);
+    }
+
     public void insert(Worker worker) throws SQLException {
         try(Connection connection = dataSource.getConnection()){
-            try (PreparedStatement statement = connection.prepareStatement(
+            try (PreparedStatement statement = prepareStatement(connection,
                     "INSERT INTO workers (first_name, last_name, email_address) VALUES(?, ?, ?)",
                     Statement.RETURN_GENERATED_KEYS
             )) {
@@ -26,40 +34,149 @@ public class WorkerDao extends AbstractDao<Worker> {
                     generatedKeys.next();
                     worker.setId(generatedKeys.getInt("id"));
                 }
+                written(worker.getId(), worker);
             }
         }
     }
 
-    public void update(Worker worker) throws SQLException{
+    // Inserts all the workers in one transaction, sending the rows to the database in batches instead of
+    // one round trip per row. Either all of them are inserted (and get their id) or none of them
+    public void insertAll(List<Worker> workers) throws SQLException {
         try (Connection connection = dataSource.getConnection()) {
-            try (PreparedStatement statement = connection.prepareStatement(
-                    "UPDATE workers SET task_id = ? WHERE id= ?"
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = prepareStatement(connection,
+                    "INSERT INTO workers (first_name, last_name, email_address) VALUES(?, ?, ?)",
+                    Statement.RETURN_GENERATED_KEYS
             )) {
-                statement.setInt(1, worker.getTaskId());
-                statement.setInt(2, worker.getId());
-                statement.executeUpdate();
+                for (int start = 0; start < workers.size(); start += INSERT_BATCH_SIZE) {
+                    List<Worker> batch = workers.subList(start, Math.min(workers.size(), start + INSERT_BATCH_SIZE));
+                    for (Worker worker : batch) {
+                        statement.setString(1, worker.getFirstName());
+                        statement.setString(2, worker.getLastName());
+                        statement.setString(3, worker.getEmail());
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                    try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                        for (Worker worker : batch) {
+                            generatedKeys.next();
+                            worker.setId(generatedKeys.getInt("id"));
+                        }
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+        writtenMany();
+    }
 
+    // Only updates the row if nobody else has changed it since the worker was read. Returns false if someone has,
+    // then the worker must be read again. No lock is held between the read and the update
+    public boolean update(Worker worker) throws SQLException{
+        try (Connection connection = dataSource.getConnection()) {
+            try (PreparedStatement statement = prepareStatement(connection,
+                    "UPDATE workers SET task_id = ?, version = version + 1 WHERE id = ? AND version = ?"
+            )) {
+                statement.setObject(1, worker.getTaskId(), Types.INTEGER);
+                statement.setInt(2, worker.getId());
+                statement.setInt(3, worker.getVersion());
+                if (statement.executeUpdate() == 0) {
+                    invalidate(worker.getId());
+                    return false;
+                }
+                worker.setVersion(worker.getVersion() + 1);
+                written(worker.getId(), worker);
+                return true;
             }
         }
     }
 
+    // Sets the task without reading the worker first. Returns false if there is no such worker
+    public boolean assignTask(Integer workerId, Integer taskId) throws SQLException {
+        return assignTask(List.of(workerId), taskId) == 1;
+    }
 
-    public Worker retrieve(Integer id) throws SQLException {
-        return retrieve(id, "select * from workers where id = ?");
+    // Sets the task of all the workers in one statement. Returns how many workers were found
+    public int assignTask(List<Integer> workerIds, Integer taskId) throws SQLException {
+        int updated;
+        try (Connection connection = dataSource.getConnection()) {
+            try (PreparedStatement statement = prepareStatement(connection,
+                    "UPDATE workers SET task_id = ?, version = version + 1 WHERE id = ANY(?)"
+            )) {
+                statement.setObject(1, taskId, Types.INTEGER);
+                statement.setArray(2, connection.createArrayOf("integer", workerIds.toArray()));
+                updated = statement.executeUpdate();
+            }
+        }
+        for (Integer workerId : workerIds) {
+            invalidate(workerId);
+        }
+        return updated;
     }
 
-    public List<Worker> list() throws SQLException {
-        try(Connection connection = dataSource.getConnection()){
-            try(PreparedStatement statement = connection.prepareStatement("select * from workers")){
-                try(ResultSet rs = statement.executeQuery()){
-                    List<Worker> workers = new ArrayList<>();
-                    while (rs.next()){
-                        workers.add(mapRow(rs));
+    // Like assignTask, but only if each worker still has the version it had when it was read (versions are in the
+    // same order as workerIds). If any of them has changed, none of them are updated and false is returned
+    public boolean assignTask(List<Integer> workerIds, List<Integer> versions, Integer taskId) throws SQLException {
+        boolean updated = true;
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = prepareStatement(connection,
+                    "UPDATE workers SET task_id = ?, version = version + 1 WHERE id = ? AND version = ?"
+            )) {
+                for (int i = 0; i < workerIds.size(); i++) {
+                    statement.setObject(1, taskId, Types.INTEGER);
+                    statement.setInt(2, workerIds.get(i));
+                    statement.setInt(3, versions.get(i));
+                    statement.addBatch();
+                }
+                for (int count : statement.executeBatch()) {
+                    // SUCCESS_NO_INFO (-2) means the driver doesn't know, the row was updated
+                    if (count == 0) {
+                        updated = false;
                     }
-                    return workers;
                 }
+                if (updated) {
+                    connection.commit();
+                } else {
+                    connection.rollback();
+                }
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
             }
         }
+        for (Integer workerId : workerIds) {
+            invalidate(workerId);
+        }
+        return updated;
+    }
+
+
+    public Worker retrieve(Integer id) throws SQLException {
+        return retrieve(id, "select * from workers where id = ?");
+    }
+
+    public List<Worker> list() throws SQLException {
+        return list("select * from workers order by id");
+    }
+
+    // All workers in id order, one at a time, without keeping them in memory
+    public void forEach(int fetchSize, RowCallback<Worker> callback) throws SQLException, IOException {
+        forEach("select * from workers order by id", fetchSize, callback);
+    }
+
+    // At most limit workers with a higher id than after, ordered by id
+    public List<Worker> listPage(int after, int limit) throws SQLException {
+        return listPage("select * from workers where id > ? order by id limit ?", after, limit);
     }
 
 
@@ -71,7 +188,20 @@ public class WorkerDao extends AbstractDao<Worker> {
         worker.setFirstName(rs.getString("first_name"));
         worker.setLastName(rs.getString("last_name"));
         worker.setEmail(rs.getString("email_address"));
+        worker.setVersion(rs.getInt("version"));
         return worker;
     }
 
+    @Override
+    protected Worker copy(Worker worker) {
+        Worker copy = new Worker();
+        copy.setId(worker.getId());
+        copy.setTaskId(worker.getTaskId());
+        copy.setFirstName(worker.getFirstName());
+        copy.setLastName(worker.getLastName());
+        copy.setEmail(worker.getEmail());
+        copy.setVersion(worker.getVersion());
+        return copy;
+    }
+
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package no.kristiania.database;
 import javax.sql.DataSource;
+import java.io.IOException;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
@@ -10,9 +11,13 @@ public class WorkerTaskDao extends AbstractDao<WorkerTask>{
         super (dataSource);
     }
 
+    public WorkerTaskDao(DataSource dataSource, EntityCache<WorkerTask> cache) {
+        super(dataSource, cache);
+    }
+
     public void insert(WorkerTask task) throws SQLException {
         try (Connection connection = dataSource.getConnection()) {
-            try (PreparedStatement statement = connection.prepareStatement(
+            try (PreparedStatement statement = prepareStatement(connection,
                     "INSERT INTO worker_tasks (name) VALUES(?)",
                     Statement.RETURN_GENERATED_KEYS
             )) {
@@ -23,6 +28,7 @@ public class WorkerTaskDao extends AbstractDao<WorkerTask>{
                     generatedKeys.next();
                     task.setId(generatedKeys.getInt("id"));
                 }
+                written(task.getId(), task);
             }
         }
     }
@@ -33,14 +39,49 @@ public class WorkerTaskDao extends AbstractDao<WorkerTask>{
     }
 
     public List<WorkerTask> list() throws SQLException {
+        return list("select * from worker_tasks order by id");
+    }
+
+    // All tasks in id order, one at a time, without keeping them in memory
+    public void forEach(int fetchSize, RowCallback<WorkerTask> callback) throws SQLException, IOException {
+        forEach("select * from worker_tasks order by id", fetchSize, callback);
+    }
+
+    // At most limit tasks with a higher id than after, ordered by id
+    public List<WorkerTask> listPage(int after, int limit) throws SQLException {
+        return listPage("select * from worker_tasks where id > ? order by id limit ?", after, limit);
+    }
+
+    // All tasks in id order with their workers, read with one query instead of one query per task.
+    // The index on workers.task_id lets the database find each task's workers without reading all workers
+    public List<TaskWithWorkers> listWithWorkers() throws SQLException {
         try (Connection connection = dataSource.getConnection()) {
-            try (PreparedStatement statement = connection.prepareStatement("select * from worker_tasks")) {
+            try (PreparedStatement statement = prepareStatement(connection,
+                    "SELECT t.id, t.name, w.id AS worker_id, w.first_name, w.last_name, w.email_address, w.version " +
+                    "FROM worker_tasks t LEFT JOIN workers w ON w.task_id = t.id ORDER BY t.id, w.id"
+            )) {
                 try (ResultSet rs = statement.executeQuery()) {
-                    List<WorkerTask> workers = new ArrayList<>();
+                    List<TaskWithWorkers> tasks = new ArrayList<>();
+                    TaskWithWorkers current = null;
                     while (rs.next()) {
-                        workers.add(mapRow(rs));
+                        // The rows of a task come one after the other, one for each of its workers
+                        if (current == null || current.getTask().getId() != rs.getInt("id")) {
+                            current = new TaskWithWorkers(mapRow(rs));
+                            tasks.add(current);
+                        }
+                        // A task without workers has one row, with null for the worker columns
+                        if (rs.getObject("worker_id") != null) {
+                            Worker worker = new Worker();
+                            worker.setId(rs.getInt("worker_id"));
+                            worker.setTaskId(current.getTask().getId());
+                            worker.setFirstName(rs.getString("first_name"));
+                            worker.setLastName(rs.getString("last_name"));
+                            worker.setEmail(rs.getString("email_address"));
+                            worker.setVersion(rs.getInt("version"));
+                            current.getWorkers().add(worker);
+                        }
                     }
-                    return workers;
+                    return tasks;
                 }
             }
         }
@@ -54,4 +95,12 @@ public class WorkerTaskDao extends AbstractDao<WorkerTask>{
 
         return task;
     }
+
+    @Override
+    protected WorkerTask copy(WorkerTask task) {
+        WorkerTask copy = new WorkerTask();
+        copy.setId(task.getId());
+        copy.setName(task.getName());
+        return copy;
+    }
 }
@@ -0,0 +1,329 @@
+package no.kristiania.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// One line per request: "2026-10-18T12:00:00.123Z GET /api/workers 200 5120 1.234" (time, method, path, status,
+// bytes or - when not known, milliseconds). Request threads put a record in a ring buffer and go on - no lock, no
+// I/O and no allocation. One thread takes the records out and writes them in batches to a file or the logger, so
+// the request threads never wait for each other on the output. When the buffer is full, the record is dropped
+// (and counted), or the request waits for room if the log is configured to block
+public class AccessLog implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AccessLog.class);
+
+    // The writer writes at most this many lines before it flushes, so the rest can't wait too long
+    private static final int MAX_BATCH = 1024;
+    // How long the writer sleeps when there is nothing to write
+    private static final long IDLE_PARK_NANOS = 5_000_000;
+
+    private final Sink sink;
+    private final boolean blockWhenFull;
+    private final int capacity;
+    private final int mask;
+
+    // The record with sequence number s is in slot s & mask. The slots are allocated once and reused
+    private final String[] requestLines;
+    private final int[] methodEnds;
+    private final int[] pathEnds;
+    private final int[] statuses;
+    private final long[] responseBytes;
+    private final long[] durations;
+    private final long[] timestamps;
+    // The sequence number of the record in each slot, set when it is complete. Until then the writer waits for it
+    private final AtomicLongArray published;
+    // The next sequence number to hand out
+    private final AtomicLong claimed = new AtomicLong();
+    // Records before this have been taken out by the writer, so their slots can be reused
+    private volatile long consumed;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    // The buffer holds bufferSize records, rounded up to a power of two
+    AccessLog(Sink sink, int bufferSize, boolean blockWhenFull) {
+        this.sink = sink;
+        this.blockWhenFull = blockWhenFull;
+        capacity = Integer.highestOneBit(Math.max(bufferSize - 1, 1)) << 1;
+        mask = capacity - 1;
+        requestLines = new String[capacity];
+        methodEnds = new int[capacity];
+        pathEnds = new int[capacity];
+        statuses = new int[capacity];
+        responseBytes = new long[capacity];
+        durations = new long[capacity];
+        timestamps = new long[capacity];
+        published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+        writer = new Thread(this::writeRecords, "access-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public static AccessLog toLogger(int bufferSize, boolean blockWhenFull) {
+        return new AccessLog(new LoggerSink(), bufferSize, blockWhenFull);
+    }
+
+    // file is renamed to file.1 (file.1 to file.2 and so on) when it would grow past maxFileSize.
+    // At most maxFiles old files are kept
+    public static AccessLog toFile(Path file, long maxFileSize, int maxFiles, int bufferSize, boolean blockWhenFull) throws IOException {
+        return new AccessLog(new RotatingFileSink(file, maxFileSize, maxFiles), bufferSize, blockWhenFull);
+    }
+
+    // The method and path are requestLine[0, methodEnd) and requestLine(methodEnd, pathEnd). They are copied out
+    // by the writer, not here. The query string is left out, since form data may have names and email addresses.
+    // Offsets outside the line are moved inside it, so the writer can't fail on them
+    public void log(String requestLine, int methodEnd, int pathEnd, int status, long bytes, long durationNanos) {
+        if (closed) {
+            dropped.increment();
+            return;
+        }
+        if (methodEnd < 0 || methodEnd > requestLine.length()) {
+            methodEnd = requestLine.length();
+        }
+        pathEnd = Math.max(methodEnd, Math.min(pathEnd, requestLine.length()));
+        long sequence;
+        boolean waited = false;
+        while (true) {
+            sequence = claimed.get();
+            if (sequence - consumed >= capacity) {
+                if (!blockWhenFull || closed) {
+                    dropped.increment();
+                    return;
+                }
+                if (!waited) {
+                    blocked.increment();
+                    waited = true;
+                }
+                LockSupport.parkNanos(50_000);
+                continue;
+            }
+            if (claimed.compareAndSet(sequence, sequence + 1)) {
+                break;
+            }
+        }
+        int slot = (int) (sequence & mask);
+        requestLines[slot] = requestLine;
+        methodEnds[slot] = methodEnd;
+        pathEnds[slot] = pathEnd;
+        statuses[slot] = status;
+        responseBytes[slot] = bytes;
+        durations[slot] = durationNanos;
+        timestamps[slot] = System.currentTimeMillis();
+        // The volatile write makes the fields above visible to the writer, which reads this first
+        published.set(slot, sequence);
+    }
+
+    private void writeRecords() {
+        StringBuilder line = new StringBuilder(128);
+        while (true) {
+            long next = consumed;
+            int count = 0;
+            try {
+                while (count < MAX_BATCH && published.get((int) (next & mask)) == next) {
+                    int slot = (int) (next & mask);
+                    next++;
+                    count++;
+                    format(line, slot);
+                    // The slot is copied out, so it can be reused while we write
+                    consumed = next;
+                    sink.write(line);
+                    line.setLength(0);
+                }
+                if (count > 0) {
+                    sink.flush();
+                    written.add(count);
+                    continue;
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Failed to write access log", e);
+                // The lines that were not flushed are lost, and so is a record that could not be formatted.
+                // The writer keeps going, or the buffer would fill up and every record after it would be dropped
+                line.setLength(0);
+                dropped.add(count);
+                consumed = next;
+                continue;
+            }
+            if (closed && claimed.get() == consumed) {
+                break;
+            }
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        try {
+            sink.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close access log", e);
+        }
+    }
+
+    private void format(StringBuilder line, int slot) {
+        String requestLine = requestLines[slot];
+        // The request line can be released as soon as it is copied
+        requestLines[slot] = null;
+        line.append(Instant.ofEpochMilli(timestamps[slot])).append(' ')
+                .append(requestLine, 0, methodEnds[slot]).append(' ')
+                .append(requestLine, Math.min(methodEnds[slot] + 1, pathEnds[slot]), pathEnds[slot]).append(' ')
+                .append(statuses[slot]).append(' ');
+        if (responseBytes[slot] >= 0) {
+            line.append(responseBytes[slot]);
+        } else {
+            line.append('-');
+        }
+        // Milliseconds with three decimals
+        long micros = durations[slot] / 1000;
+        line.append(' ').append(micros / 1000).append('.');
+        long fraction = micros % 1000;
+        if (fraction < 100) {
+            line.append('0');
+        }
+        if (fraction < 10) {
+            line.append('0');
+        }
+        line.append(fraction);
+    }
+
+    // Writes what is already in the buffer and stops the writer. Records logged after this are dropped
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    // Records that were lost because the buffer was full, or because they could not be written
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    // Requests that had to wait for room in the buffer
+    public long getBlocked() {
+        return blocked.sum();
+    }
+
+    // Prometheus text format, for /admin/metrics
+    public String toPrometheus() {
+        return "# HELP access_log_records_total Access log records by what happened to them\n" +
+                "# TYPE access_log_records_total counter\n" +
+                "access_log_records_total{result=\"written\"} " + getWritten() + "\n" +
+                "access_log_records_total{result=\"dropped\"} " + getDropped() + "\n" +
+                "# HELP access_log_blocked_total Requests that waited for room in the access log buffer\n" +
+                "# TYPE access_log_blocked_total counter\n" +
+                "access_log_blocked_total " + getBlocked() + "\n";
+    }
+
+    // Where the lines go. Only called from the writer thread
+    interface Sink extends Closeable {
+        void write(CharSequence line) throws IOException;
+
+        // Called after each batch of lines
+        void flush() throws IOException;
+    }
+
+    // Through logevents, like the rest of the log. The lines can be routed with the logger no.kristiania.http.AccessLog
+    private static class LoggerSink implements Sink {
+        @Override
+        public void write(CharSequence line) {
+            logger.info("{}", line);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class RotatingFileSink implements Sink {
+        private final Path file;
+        private final long maxFileSize;
+        private final int maxFiles;
+        private BufferedWriter output;
+        private long size;
+
+        RotatingFileSink(Path file, long maxFileSize, int maxFiles) throws IOException {
+            this.file = file;
+            this.maxFileSize = maxFileSize;
+            this.maxFiles = maxFiles;
+            if (file.toAbsolutePath().getParent() != null) {
+                Files.createDirectories(file.toAbsolutePath().getParent());
+            }
+            open();
+        }
+
+        private void open() throws IOException {
+            size = Files.exists(file) ? Files.size(file) : 0;
+            // Large buffer: a batch of lines goes out in a few writes
+            output = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024);
+        }
+
+        @Override
+        public void write(CharSequence line) throws IOException {
+            // Paths are mostly ASCII, so the length in chars is close enough to the length in bytes
+            int length = line.length() + 1;
+            if (size > 0 && size + length > maxFileSize) {
+                rotate();
+            }
+            output.append(line).append('\n');
+            size += length;
+        }
+
+        private void rotate() throws IOException {
+            output.close();
+            if (maxFiles > 0) {
+                for (int i = maxFiles - 1; i >= 1; i--) {
+                    Path older = rotated(i);
+                    if (Files.exists(older)) {
+                        Files.move(older, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.delete(file);
+            }
+            open();
+        }
+
+        private Path rotated(int number) {
+            return file.resolveSibling(file.getFileName() + "." + number);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+    }
+}
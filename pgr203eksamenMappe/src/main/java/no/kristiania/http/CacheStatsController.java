@@ -0,0 +1,41 @@
+package no.kristiania.http;
+
+import no.kristiania.database.AbstractDao;
+import no.kristiania.database.EntityCache;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class CacheStatsController implements HttpController {
+    private final Map<String, AbstractDao<?>> daos;
+
+    public CacheStatsController(Map<String, AbstractDao<?>> daos) {
+        this.daos = daos;
+    }
+
+    @Override
+    public void handle(HttpMessage request, Socket clientSocket) throws IOException {
+        HttpMessage response = new HttpMessage(getBody());
+        response.getHeaders().put("Content-Type", "text/plain");
+        response.write(clientSocket);
+    }
+
+    public String getBody() {
+        StringBuilder body = new StringBuilder("cache size hits misses evictions\n");
+        for (Map.Entry<String, AbstractDao<?>> dao : new TreeMap<>(daos).entrySet()) {
+            EntityCache<?> cache = dao.getValue().getCache();
+            if (cache == null) {
+                body.append(dao.getKey()).append(" disabled\n");
+                continue;
+            }
+            body.append(dao.getKey()).append(' ')
+                    .append(cache.size()).append(' ')
+                    .append(cache.getHits()).append(' ')
+                    .append(cache.getMisses()).append(' ')
+                    .append(cache.getEvictions()).append('\n');
+        }
+        return body.toString();
+    }
+}
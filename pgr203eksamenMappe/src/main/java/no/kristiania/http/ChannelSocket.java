@@ -0,0 +1,78 @@
+package no.kristiania.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// Lets the controllers, which write their response to a Socket, run on a non-blocking channel.
+// The response is collected in memory and handed back to the event loop when the controller is done
+class ChannelSocket extends Socket {
+    private final InetSocketAddress remoteAddress;
+    private ByteArrayOutputStream output = new ByteArrayOutputStream();
+    // The response in the order it was written: ByteBuffers and FileRegions
+    private final List<Object> segments = new ArrayList<>();
+
+    ChannelSocket(InetSocketAddress remoteAddress) {
+        this.remoteAddress = remoteAddress;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        // The request has already been read by the event loop
+        return InputStream.nullInputStream();
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return remoteAddress != null ? remoteAddress.getAddress() : null;
+    }
+
+    @Override
+    public int getPort() {
+        return remoteAddress != null ? remoteAddress.getPort() : 0;
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        // The event loop owns the channel
+    }
+
+    void addFileRegion(FileRegion region) {
+        flushOutput();
+        segments.add(region);
+    }
+
+    List<Object> getSegments() {
+        flushOutput();
+        return segments;
+    }
+
+    private void flushOutput() {
+        if (output.size() > 0) {
+            segments.add(ByteBuffer.wrap(output.toByteArray()));
+            output = new ByteArrayOutputStream();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package no.kristiania.http;
+
+// Where we are in a chunked body: a size line, that many bytes and an empty line, again and again until a size of 0.
+// After that come optional trailer headers and an empty line. The request parser and HttpBodyInputStream read the
+// lines and the data in their own way, and hand them to this to know what comes next
+class ChunkedFraming {
+
+    private enum Expect { SIZE, DATA, DATA_END, TRAILERS, DONE }
+
+    private Expect expect = Expect.SIZE;
+    // Bytes left of the current chunk
+    private long remaining;
+
+    void reset() {
+        expect = Expect.SIZE;
+        remaining = 0;
+    }
+
+    // A line of the framing, without the CRLF. Returns false if it isn't what should come here
+    boolean line(String text) {
+        switch (expect) {
+            case DATA_END:
+                expect = Expect.SIZE;
+                return text.isEmpty();
+            case TRAILERS:
+                // Trailer headers are not used
+                if (text.isEmpty()) {
+                    expect = Expect.DONE;
+                }
+                return true;
+            case SIZE:
+                remaining = parseSize(text);
+                if (remaining < 0) {
+                    return false;
+                }
+                expect = remaining == 0 ? Expect.TRAILERS : Expect.DATA;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // After count bytes of the current chunk have been read
+    void consumed(long count) {
+        remaining -= count;
+        if (remaining == 0) {
+            expect = Expect.DATA_END;
+        }
+    }
+
+    boolean isInData() {
+        return expect == Expect.DATA;
+    }
+
+    boolean isDone() {
+        return expect == Expect.DONE;
+    }
+
+    long getRemaining() {
+        return expect == Expect.DATA ? remaining : 0;
+    }
+
+    // The size is in hex, and may be followed by extensions: "1a;name=value". Returns -1 if it isn't a size
+    private static long parseSize(String text) {
+        int semicolonPos = text.indexOf(';');
+        String size = (semicolonPos != -1 ? text.substring(0, semicolonPos) : text).trim();
+        try {
+            return Math.max(Long.parseLong(size, 16), -1);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package no.kristiania.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+// Sends a body of unknown length with Transfer-Encoding: chunked. Each chunk is the size in hex, CRLF,
+// the bytes and CRLF, and a chunk of size 0 ends the body. Small writes are collected into chunks of up
+// to 8 KB, and the size line and the CRLF are put around the data in the same buffer, so each chunk is one write
+public class ChunkedOutputStream extends OutputStream {
+
+    private static final int CHUNK_SIZE = 8 * 1024;
+    // Room for the size line in front of the data: 4 hex digits + CRLF
+    private static final int HEAD_ROOM = 6;
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream output;
+    private final byte[] buffer = new byte[HEAD_ROOM + CHUNK_SIZE + 2];
+    private int count;
+    private long bytesWritten;
+    private boolean closed;
+
+    public ChunkedOutputStream(OutputStream output) {
+        this.output = output;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == CHUNK_SIZE) {
+            writeChunk();
+        }
+        buffer[HEAD_ROOM + count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (count == CHUNK_SIZE) {
+                writeChunk();
+            }
+            int copied = Math.min(length, CHUNK_SIZE - count);
+            System.arraycopy(bytes, offset, buffer, HEAD_ROOM + count, copied);
+            count += copied;
+            offset += copied;
+            length -= copied;
+        }
+    }
+
+    // Sends what has been written so far, so the client can start on it
+    @Override
+    public void flush() throws IOException {
+        writeChunk();
+        output.flush();
+    }
+
+    // Ends the body. The socket stays open for the next request
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writeChunk();
+        output.write(LAST_CHUNK);
+        output.flush();
+    }
+
+    // The number of body bytes sent, without the chunk framing
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private void writeChunk() throws IOException {
+        if (count == 0) {
+            // A chunk of size 0 would end the body
+            return;
+        }
+        int start = HEAD_ROOM;
+        buffer[--start] = '\n';
+        buffer[--start] = '\r';
+        for (int size = count; size > 0; size >>>= 4) {
+            buffer[--start] = HEX[size & 0xf];
+        }
+        buffer[HEAD_ROOM + count] = '\r';
+        buffer[HEAD_ROOM + count + 1] = '\n';
+        output.write(buffer, start, HEAD_ROOM + count + 2 - start);
+        bytesWritten += count;
+        count = 0;
+    }
+}
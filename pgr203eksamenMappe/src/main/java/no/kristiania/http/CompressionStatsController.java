@@ -0,0 +1,34 @@
+package no.kristiania.http;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class CompressionStatsController implements HttpController {
+    private final ResponseCompressor compressor;
+
+    public CompressionStatsController(ResponseCompressor compressor) {
+        this.compressor = compressor;
+    }
+
+    @Override
+    public void handle(HttpMessage request, Socket clientSocket) throws IOException {
+        HttpMessage response = new HttpMessage(getBody());
+        response.getHeaders().put("Content-Type", "text/plain");
+        response.write(clientSocket);
+    }
+
+    public String getBody() {
+        StringBuilder body = new StringBuilder("route responses original_bytes compressed_bytes saved_bytes\n");
+        for (Map.Entry<String, ResponseCompressor.RouteSavings> route : new TreeMap<>(compressor.getSavings()).entrySet()) {
+            ResponseCompressor.RouteSavings savings = route.getValue();
+            body.append(route.getKey()).append(' ')
+                    .append(savings.getResponses()).append(' ')
+                    .append(savings.getOriginalBytes()).append(' ')
+                    .append(savings.getCompressedBytes()).append(' ')
+                    .append(savings.getSavedBytes()).append('\n');
+        }
+        return body.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package no.kristiania.http;
+
+import no.kristiania.database.AbstractDao;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.ToIntFunction;
+
+// A whole table as an HTML list, like GET /api/workers. ?after= and ?limit= page through it in id order.
+// When the DAO has a fresh list() in its cache, the response is made from that without asking the database
+public class EntityListController<T> implements HttpController {
+
+    private final AbstractDao<T> dao;
+    private final String path;
+    private final int fetchSize;
+    private final ToIntFunction<T> idOf;
+    private final BiConsumer<HtmlBuffer, T> renderer;
+
+    public EntityListController(AbstractDao<T> dao, String path, int fetchSize, ToIntFunction<T> idOf, BiConsumer<HtmlBuffer, T> renderer) {
+        this.dao = dao;
+        this.path = path;
+        this.fetchSize = fetchSize;
+        this.idOf = idOf;
+        this.renderer = renderer;
+    }
+
+    @Override
+    public void handle(HttpMessage request, Socket clientSocket) throws IOException, SQLException {
+        PageRequest page;
+        try {
+            page = PageRequest.fromRequest(request);
+        } catch (IllegalArgumentException e) {
+            HttpServer.writeBadRequest(clientSocket, e);
+            return;
+        }
+        List<T> cached = dao.cachedList();
+        List<T> rows;
+        if (cached != null) {
+            rows = page != null ? pageOf(cached, page) : cached;
+        } else if (page != null) {
+            rows = dao.listPage(page.getAfter(), page.getFetchSize());
+        } else if (request.getStartLine().endsWith("HTTP/1.1")) {
+            // HTTP/1.1 clients get the rows as they are read
+            stream(clientSocket);
+            return;
+        } else {
+            rows = dao.list();
+        }
+
+        HtmlBuffer html = HtmlBuffer.forThread().appendRaw("<ul>");
+        for (T row : page != null ? page.page(rows) : rows) {
+            renderer.accept(html, row);
+        }
+        html.appendRaw("</ul>");
+        HttpMessage response = new HttpMessage(html.toByteArray());
+        response.getHeaders().put("Content-Type", "text/html");
+        if (page != null && page.hasNext(rows)) {
+            response.getHeaders().put("Link", page.nextLink(path, idOf.applyAsInt(page.page(rows).get(page.getLimit() - 1))));
+        }
+
+        // Write the response back to the client
+        response.write(clientSocket);
+    }
+
+    private void stream(Socket clientSocket) throws IOException, SQLException {
+        HttpMessage response = new HttpMessage();
+        response.setStartLine("HTTP/1.1 200 OK");
+        response.getHeaders().put("Content-Type", "text/html");
+        OutputStream output = response.writeChunked(clientSocket);
+        HtmlBuffer html = HtmlBuffer.forThread().appendRaw("<ul>");
+        dao.forEach(fetchSize, row -> {
+            renderer.accept(html, row);
+            if (html.size() >= HtmlBuffer.FLUSH_SIZE) {
+                html.writeTo(output);
+            }
+        });
+        html.appendRaw("</ul>").writeTo(output);
+        // Not in a finally: if the query fails, the response must not end like it was complete
+        output.close();
+    }
+
+    // The same rows listPage() would return: the cached list is in id order, so the page starts where a
+    // binary search for the after id ends
+    private List<T> pageOf(List<T> rows, PageRequest page) {
+        int low = 0, high = rows.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (idOf.applyAsInt(rows.get(middle)) <= page.getAfter()) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return rows.subList(low, Math.min(rows.size(), low + page.getFetchSize()));
+    }
+}
@@ -0,0 +1,45 @@
+package no.kristiania.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+// A part of a file that is to be sent with FileChannel.transferTo, so the bytes go from the page cache
+// to the socket without being copied onto the heap
+class FileRegion {
+    private final FileChannel file;
+    private long position;
+    private long remaining;
+
+    FileRegion(FileChannel file, long position, long count) {
+        this.file = file;
+        this.position = position;
+        this.remaining = count;
+    }
+
+    // Transfers as much as the target accepts now. Returns true when the whole region has been sent.
+    // Fails if the file has become shorter since the response was started - then the rest will never come
+    boolean transferTo(WritableByteChannel target) throws IOException {
+        while (remaining > 0) {
+            long transferred = file.transferTo(position, remaining, target);
+            if (transferred <= 0) {
+                if (position >= file.size()) {
+                    throw new EOFException("File was truncated while it was sent");
+                }
+                return false;
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+        close();
+        return true;
+    }
+
+    void close() {
+        try {
+            file.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package no.kristiania.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Collects HTML as UTF-8 bytes. Text from users is escaped as it is copied in, so it can't become markup.
+// Each thread reuses its buffer (forThread), so rendering a page doesn't allocate anything but the result
+public class HtmlBuffer {
+
+    private static final int INITIAL_SIZE = 16 * 1024;
+    // When streaming, write out the buffer when it has this much in it
+    public static final int FLUSH_SIZE = 8 * 1024;
+    // Buffers that have grown larger than this are not kept for the next request
+    private static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<HtmlBuffer> threadBuffer = ThreadLocal.withInitial(HtmlBuffer::new);
+
+    private byte[] buffer = new byte[INITIAL_SIZE];
+    private int size;
+
+    // An empty buffer for this thread. Don't keep it after the response is written
+    public static HtmlBuffer forThread() {
+        HtmlBuffer html = threadBuffer.get();
+        if (html.buffer.length > MAX_RETAINED_SIZE) {
+            html.buffer = new byte[INITIAL_SIZE];
+        }
+        html.size = 0;
+        return html;
+    }
+
+    // For markup from our own code, already encoded as UTF-8. It is not escaped
+    public HtmlBuffer appendRaw(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+        return this;
+    }
+
+    public HtmlBuffer appendRaw(String markup) {
+        return appendRaw(markup.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public HtmlBuffer append(int value) {
+        ensureCapacity(11);
+        if (value < 0) {
+            buffer[size++] = '-';
+            if (value == Integer.MIN_VALUE) {
+                return appendRaw("2147483648");
+            }
+            value = -value;
+        }
+        int start = size;
+        do {
+            buffer[size++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        // The digits came out backwards
+        for (int i = start, j = size - 1; i < j; i++, j--) {
+            byte digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+        return this;
+    }
+
+    // Escapes & < > " ' and encodes as UTF-8. null is rendered as nothing
+    public HtmlBuffer appendEscaped(String text) {
+        if (text == null) {
+            return this;
+        }
+        // Worst case is 6 bytes per char (&quot;), so this is the only capacity check needed
+        ensureCapacity(text.length() * 6);
+        byte[] buffer = this.buffer;
+        int size = this.size;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                switch (c) {
+                    case '&': size = put(buffer, size, "&amp;"); break;
+                    case '<': size = put(buffer, size, "&lt;"); break;
+                    case '>': size = put(buffer, size, "&gt;"); break;
+                    case '"': size = put(buffer, size, "&quot;"); break;
+                    case '\'': size = put(buffer, size, "&#39;"); break;
+                    default: buffer[size++] = (byte) c;
+                }
+            } else if (c < 0x800) {
+                buffer[size++] = (byte) (0xc0 | c >> 6);
+                buffer[size++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                buffer[size++] = (byte) (0xf0 | codePoint >> 18);
+                buffer[size++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                buffer[size++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                buffer[size++] = (byte) (0x80 | codePoint & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                // A broken surrogate pair can't be encoded
+                buffer[size++] = '?';
+            } else {
+                buffer[size++] = (byte) (0xe0 | c >> 12);
+                buffer[size++] = (byte) (0x80 | c >> 6 & 0x3f);
+                buffer[size++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        this.size = size;
+        return this;
+    }
+
+    private static int put(byte[] buffer, int size, String entity) {
+        for (int i = 0; i < entity.length(); i++) {
+            buffer[size++] = (byte) entity.charAt(i);
+        }
+        return size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    // Writes what has been rendered so far and empties the buffer, for streamed responses
+    public void writeTo(OutputStream output) throws IOException {
+        output.write(buffer, 0, size);
+        size = 0;
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, size, StandardCharsets.UTF_8);
+    }
+
+    private void ensureCapacity(int length) {
+        if (size + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length));
+        }
+    }
+}
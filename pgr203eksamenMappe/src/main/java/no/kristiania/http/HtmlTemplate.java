@@ -0,0 +1,53 @@
+package no.kristiania.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// A HTML fragment with holes, like "<li>{{name}}</li>". The template is split into parts once, when it is
+// compiled, so rendering is only copying the markup and the escaped values into a HtmlBuffer
+public class HtmlTemplate {
+
+    private final byte[][] markup;
+    private final String[] holes;
+
+    private HtmlTemplate(byte[][] markup, String[] holes) {
+        this.markup = markup;
+        this.holes = holes;
+    }
+
+    public static HtmlTemplate compile(String template) {
+        List<byte[]> markup = new ArrayList<>();
+        List<String> holes = new ArrayList<>();
+        int position = 0;
+        int start;
+        while ((start = template.indexOf("{{", position)) != -1) {
+            int end = template.indexOf("}}", start);
+            if (end == -1) {
+                throw new IllegalArgumentException("Missing }} in template: " + template);
+            }
+            markup.add(template.substring(position, start).getBytes(StandardCharsets.UTF_8));
+            holes.add(template.substring(start + 2, end).trim());
+            position = end + 2;
+        }
+        markup.add(template.substring(position).getBytes(StandardCharsets.UTF_8));
+        return new HtmlTemplate(markup.toArray(new byte[0][]), holes.toArray(new String[0]));
+    }
+
+    // The values fill the holes in order. Numbers are written as they are, everything else is escaped
+    public void render(HtmlBuffer html, Object... values) {
+        if (values.length != holes.length) {
+            throw new IllegalArgumentException("Expected values for " + String.join(", ", holes) + ", got " + values.length);
+        }
+        for (int i = 0; i < holes.length; i++) {
+            html.appendRaw(markup[i]);
+            Object value = values[i];
+            if (value instanceof Integer) {
+                html.append((Integer) value);
+            } else {
+                html.appendEscaped(value != null ? value.toString() : null);
+            }
+        }
+        html.appendRaw(markup[holes.length]);
+    }
+}
@@ -0,0 +1,190 @@
+package no.kristiania.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+// A body read as it arrives, so it never has to fit in memory. It ends where the body ends - after Content-Length
+// bytes, after the last chunk, or when the connection closes if the response has neither - and never reads
+// into the next message on the connection
+class HttpBodyInputStream extends InputStream {
+
+    private final InputStream input;
+    private final boolean chunked;
+    private final boolean untilClose;
+    // Bytes left of the body, when it isn't chunked
+    private long remaining;
+    private final ChunkedFraming chunks = new ChunkedFraming();
+    // For read() of a single byte
+    private final byte[] oneByte = new byte[1];
+    private boolean finished;
+    private boolean closed;
+    // Called once, when the stream is closed, with whether the whole body was read
+    private Consumer<Boolean> onClose;
+
+    private HttpBodyInputStream(InputStream input, long length, boolean chunked, boolean untilClose) {
+        this.input = input;
+        this.remaining = length;
+        this.chunked = chunked;
+        this.untilClose = untilClose;
+        this.finished = length == 0 && !chunked && !untilClose;
+    }
+
+    // The body that follows the head of a response, from the input of the HttpMessageReader that read the head
+    static HttpBodyInputStream forResponse(InputStream input, String requestMethod, HttpMessage head) throws HttpParseException {
+        if (!hasBody(requestMethod, head)) {
+            return new HttpBodyInputStream(input, 0, false, false);
+        }
+        if (isChunked(head)) {
+            return new HttpBodyInputStream(input, 0, true, false);
+        }
+        String contentLength = head.getHeaders().get("Content-Length");
+        if (contentLength == null) {
+            return new HttpBodyInputStream(input, 0, false, true);
+        }
+        try {
+            long length = Long.parseLong(contentLength);
+            if (length >= 0) {
+                return new HttpBodyInputStream(input, length, false, false);
+            }
+        } catch (NumberFormatException ignored) {
+            // Falls through to the error below
+        }
+        throw new HttpParseException(502, "Bad Gateway");
+    }
+
+    // Responses to HEAD, 1xx, 204 and 304 have no body, whatever their headers say
+    private static boolean hasBody(String requestMethod, HttpMessage head) {
+        if (requestMethod.equals("HEAD")) {
+            return false;
+        }
+        String[] statusLineParts = head.getStartLine().split(" ");
+        String status = statusLineParts.length > 1 ? statusLineParts[1] : "";
+        return !status.startsWith("1") && !status.equals("204") && !status.equals("304");
+    }
+
+    // A body that lasts until the connection closes can't be followed by another response
+    static boolean readsUntilClose(String requestMethod, HttpMessage head) {
+        return hasBody(requestMethod, head) && !isChunked(head) && !head.getHeaders().containsKey("Content-Length");
+    }
+
+    private static boolean isChunked(HttpMessage head) {
+        String transferEncoding = head.getHeaders().get("Transfer-Encoding");
+        return transferEncoding != null && transferEncoding.toLowerCase().contains("chunked");
+    }
+
+    void setOnClose(Consumer<Boolean> onClose) {
+        this.onClose = onClose;
+    }
+
+    // True when the whole body has been read
+    boolean isFinished() {
+        return finished;
+    }
+
+    // The whole body, for a client that keeps it in memory anyway
+    byte[] readAll(int maxSize) throws IOException {
+        if (!chunked && !untilClose && remaining > maxSize) {
+            throw new HttpParseException(413, "Payload Too Large");
+        }
+        byte[] content = readNBytes(maxSize);
+        if (read() != -1) {
+            throw new HttpParseException(413, "Payload Too Large");
+        }
+        return content;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(oneByte, 0, 1) == -1 ? -1 : oneByte[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (finished) {
+            return -1;
+        }
+        if (length == 0) {
+            return 0;
+        }
+        if (untilClose) {
+            int count = input.read(bytes, offset, length);
+            if (count == -1) {
+                finished = true;
+            }
+            return count;
+        }
+        if (chunked) {
+            while (!chunks.isInData()) {
+                if (chunks.isDone()) {
+                    finished = true;
+                    return -1;
+                }
+                if (!chunks.line(readLine())) {
+                    throw new HttpParseException(502, "Bad Gateway");
+                }
+            }
+        }
+        int count = input.read(bytes, offset, (int) Math.min(length, chunked ? chunks.getRemaining() : remaining));
+        if (count == -1) {
+            throw new EOFException("Connection closed in the middle of the body");
+        }
+        if (chunked) {
+            chunks.consumed(count);
+        } else {
+            remaining -= count;
+            finished = remaining == 0;
+        }
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (closed || finished) {
+            return 0;
+        }
+        int available = input.available();
+        return untilClose ? available : (int) Math.min(available, chunked ? chunks.getRemaining() : remaining);
+    }
+
+    // Closing before the end of the body leaves the rest unread, so the connection can't be used again
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (onClose != null) {
+            onClose.accept(finished);
+        }
+    }
+
+    // The size and trailer lines are short, so reading them a byte at a time from the reader's buffer is fine
+    private String readLine() throws IOException {
+        byte[] line = new byte[64];
+        int length = 0;
+        int c;
+        while ((c = input.read()) != '\n') {
+            if (c == -1) {
+                throw new EOFException("Connection closed in the middle of the body");
+            }
+            if (length == HttpMessageParser.DEFAULT_MAX_HEADER_SIZE) {
+                throw new HttpParseException(502, "Bad Gateway");
+            }
+            if (length == line.length) {
+                line = Arrays.copyOf(line, line.length * 2);
+            }
+            line[length++] = (byte) c;
+        }
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        return new String(line, 0, length, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -1,7 +1,6 @@
 package no.kristiania.http;
 
 import java.io.IOException;
-import java.net.Socket;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -17,42 +16,16 @@ public class HttpClient {
     }
 
     // Constructor - det som kalles når vi sier new
+    // Sends the request with PooledHttpClient.getDefault(), so the connection is kept open for the next request
     public HttpClient(final String hostname, int port, final String requestTarget, final String httpMethod, String requestBody) throws IOException {
-        // Connect til serven
-        Socket socket = new Socket(hostname, port);
-
-        String contentLengthHeader = requestBody != null ? "Content-Length: " + requestBody.length() + "\r\n" : "";
-
-        // HTTP Request consists of request line + 0 or more request headers
-        //  request line consists of "verb" (GET, POST, PUT) request target ("/echo", "/echo?status=404"), protocol (HTTP/1.1)
-        String request = httpMethod + " " + requestTarget + " HTTP/1.1\r\n" +
-                // request header consists of "name: value"
-                // header host brukes for å angi hostnavnet i URL
-                "Host: " + hostname + "\r\n" +
-                contentLengthHeader +
-                // request ends with empty line
-                "\r\n";
-
-        // send request to server
-        socket.getOutputStream().write(request.getBytes());
-
-        if (requestBody != null) {
-            socket.getOutputStream().write(requestBody.getBytes());
-        }
-
-        HttpMessage response = new HttpMessage(socket);
-
-        // The start line in the response is called status line or response line
-        // response line consists of protocol ("HTTP/1.1") status code (200, 404, 401, 500) and status message
-        String responseLine = response.getStartLine();
-        responseHeaders = response.getHeaders();
-        responseBody = response.getBody();
-
-        String[] responseLineParts = responseLine.split(" ");
+        HttpClientRequest request = new HttpClientRequest(hostname, port, httpMethod, requestTarget);
+        request.setBody(requestBody);
+        HttpClientResponse response = PooledHttpClient.getDefault().send(request);
 
         // Status code determines if it went ok (2xx) or not (4xx). (In addition 5xx: server error) 3xx
-        // Status code determines if it went ok (2xx) or not (4xx). (In addition 5xx: server error) 3xx
-        statusCode = Integer.parseInt(responseLineParts[1]);
+        statusCode = response.getStatusCode();
+        responseHeaders = response.getHeaders();
+        responseBody = response.getResponseBody();
     }
 
     public static void main(String[] args) throws IOException {
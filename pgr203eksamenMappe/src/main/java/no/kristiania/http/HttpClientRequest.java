@@ -0,0 +1,79 @@
+package no.kristiania.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+// A request for PooledHttpClient
+public class HttpClientRequest {
+    private final String hostname;
+    private final int port;
+    private final String method;
+    private final String target;
+    private final Map<String, String> headers = HttpMessageParser.newHeaderMap();
+    private String body;
+
+    public HttpClientRequest(String hostname, int port, String method, String target) {
+        this.hostname = hostname;
+        this.port = port;
+        this.method = method;
+        this.target = target;
+    }
+
+    public HttpClientRequest(String hostname, int port, String target) {
+        this(hostname, port, "GET", target);
+    }
+
+    public String getHostname() {
+        return hostname;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public void setBody(String body) {
+        this.body = body;
+    }
+
+    // The whole request, so it can be sent with one write. Content-Length is the number of bytes in the
+    // UTF-8 body, not the number of characters
+    byte[] toBytes() {
+        byte[] content = body != null ? body.getBytes(StandardCharsets.UTF_8) : null;
+        StringBuilder head = new StringBuilder();
+        head.append(method).append(' ').append(target).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(hostname).append(port != 80 ? ":" + port : "").append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (!header.getKey().equalsIgnoreCase("Content-Length")) {
+                head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+        }
+        if (content != null) {
+            head.append("Content-Length: ").append(content.length).append("\r\n");
+        }
+        head.append("\r\n");
+        byte[] headBytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        if (content == null) {
+            return headBytes;
+        }
+        byte[] request = new byte[headBytes.length + content.length];
+        System.arraycopy(headBytes, 0, request, 0, headBytes.length);
+        System.arraycopy(content, 0, request, headBytes.length, content.length);
+        return request;
+    }
+}
@@ -0,0 +1,56 @@
+package no.kristiania.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+// A response received by PooledHttpClient
+public class HttpClientResponse {
+    private final String statusLine;
+    private final int statusCode;
+    private final Map<String, String> headers;
+    private final String body;
+    private final byte[] content;
+
+    HttpClientResponse(HttpMessage response) throws HttpParseException {
+        statusLine = response.getStartLine();
+        // "HTTP/1.1 200 OK"
+        String[] statusLineParts = statusLine.split(" ");
+        try {
+            statusCode = Integer.parseInt(statusLineParts[1]);
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new HttpParseException(502, "Bad Gateway");
+        }
+        headers = response.getHeaders();
+        body = response.getBody();
+        content = response.getContent();
+    }
+
+    HttpClientResponse(String statusLine, Map<String, String> headers, byte[] content) throws HttpParseException {
+        this(new HttpMessage(statusLine, headers, new String(content, StandardCharsets.UTF_8), content));
+    }
+
+    public String getStatusLine() {
+        return statusLine;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public String getResponseHeader(String headerName) {
+        return headers.get(headerName);
+    }
+
+    public String getResponseBody() {
+        return body;
+    }
+
+    // The body as bytes, like a gzip body
+    public byte[] getContent() {
+        return content;
+    }
+}
@@ -0,0 +1,66 @@
+package no.kristiania.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Map;
+
+// A response from PooledHttpClient.sendStreaming. The body is read from the connection as it is consumed, so a
+// large export can be copied to a file with Files.copy(response.getBody(), path) without holding it in memory.
+// Close it when done: if the whole body was read, the connection goes back to the pool, else it is closed
+public class HttpClientStreamingResponse implements Closeable {
+    private final String statusLine;
+    private final int statusCode;
+    private final Map<String, String> headers;
+    private final HttpBodyInputStream body;
+
+    HttpClientStreamingResponse(HttpMessage head, HttpBodyInputStream body) throws HttpParseException {
+        statusLine = head.getStartLine();
+        // "HTTP/1.1 200 OK"
+        String[] statusLineParts = statusLine.split(" ");
+        try {
+            statusCode = Integer.parseInt(statusLineParts[1]);
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new HttpParseException(502, "Bad Gateway");
+        }
+        headers = head.getHeaders();
+        this.body = body;
+    }
+
+    public String getStatusLine() {
+        return statusLine;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public String getResponseHeader(String headerName) {
+        return headers.get(headerName);
+    }
+
+    // The body as it was sent (not decoded). It ends at the end of the body - closing it is the same as
+    // closing the response
+    public InputStream getBody() {
+        return body;
+    }
+
+    public ReadableByteChannel getBodyChannel() {
+        return Channels.newChannel(body);
+    }
+
+    byte[] readBody(int maxSize) throws IOException {
+        return body.readAll(maxSize);
+    }
+
+    @Override
+    public void close() {
+        body.close();
+    }
+}
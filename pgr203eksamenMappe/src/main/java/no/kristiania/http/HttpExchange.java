@@ -0,0 +1,170 @@
+package no.kristiania.http;
+
+// The request that is being handled on this thread. Controllers only get the socket to write to,
+// so this is how the response side (like HttpMessage.write) finds out what the client asked for.
+// Each thread reuses its exchange, so handling a request doesn't allocate one
+public class HttpExchange {
+
+    private static final ThreadLocal<HttpExchange> current = ThreadLocal.withInitial(HttpExchange::new);
+
+    private HttpMessage request;
+    private String path;
+    private int pathStart;
+    private int pathEnd;
+    private int targetEnd;
+    private ResponseCompressor compressor;
+    // A HEAD request is answered like a GET, but the body is not sent
+    private boolean head;
+    private Router.Route route;
+    // Start and end (in the request line) of each path parameter of the route
+    private final int[] parameterBounds = new int[Router.MAX_PARAMETERS * 2];
+    // Set when the response is written: its status code, its size (-1 if not known) and how long writing took
+    private int status;
+    private long responseBytes;
+    private long writeNanos;
+
+    private HttpExchange() {
+    }
+
+    // The path is request.getStartLine()[pathStart, pathEnd), followed by the query up to targetEnd.
+    // They are only copied out if someone asks for them
+    static HttpExchange begin(HttpMessage request, int pathStart, int pathEnd, int targetEnd, ResponseCompressor compressor) {
+        HttpExchange exchange = current.get();
+        exchange.request = request;
+        exchange.path = null;
+        exchange.pathStart = pathStart;
+        exchange.pathEnd = pathEnd;
+        exchange.targetEnd = targetEnd;
+        exchange.compressor = compressor;
+        exchange.head = request.getStartLine().startsWith("HEAD ");
+        exchange.route = null;
+        exchange.status = 0;
+        exchange.responseBytes = 0;
+        exchange.writeNanos = 0;
+        return exchange;
+    }
+
+    static void end() {
+        HttpExchange exchange = current.get();
+        exchange.request = null;
+        exchange.route = null;
+    }
+
+    // Returns null when no request is being handled, like in unit tests of a controller
+    public static HttpExchange current() {
+        HttpExchange exchange = current.get();
+        return exchange.request != null ? exchange : null;
+    }
+
+    public HttpMessage getRequest() {
+        return request;
+    }
+
+    // The route pattern (like "/api/workers/{id}") when the request was routed to a controller, else the path
+    public String getPath() {
+        if (route != null) {
+            return route.getPattern();
+        }
+        if (path == null) {
+            path = request.getStartLine().substring(pathStart, pathEnd);
+        }
+        return path;
+    }
+
+    // The query string of the request, without the ?, or null if it has none. The request line has already been taken
+    // apart when the request is the one being handled; otherwise (like in unit tests of a controller) it is done here
+    public static String getQuery(HttpMessage request) {
+        HttpExchange exchange = current();
+        String requestLine = request.getStartLine();
+        if (exchange != null && exchange.request == request) {
+            return exchange.pathEnd < exchange.targetEnd ? requestLine.substring(exchange.pathEnd + 1, exchange.targetEnd) : null;
+        }
+        int targetStart = requestLine.indexOf(' ') + 1;
+        int targetEnd = requestLine.indexOf(' ', targetStart);
+        if (targetEnd == -1) {
+            targetEnd = requestLine.length();
+        }
+        int questionPos = requestLine.indexOf('?', targetStart);
+        return questionPos != -1 && questionPos < targetEnd ? requestLine.substring(questionPos + 1, targetEnd) : null;
+    }
+
+    // True when the current request is HEAD: the response gets the headers (with the Content-Length the body
+    // would have had), and no body
+    static boolean isHeadRequest() {
+        HttpExchange exchange = current();
+        return exchange != null && exchange.head;
+    }
+
+    // The Connection header the response gets when it doesn't set one: close when the engine closes the connection
+    // after it, keep-alive for a HTTP/1.0 client that asked to keep it open (HTTP/1.1 is kept open without saying so).
+    // A response that says Connection: close itself (like an error) makes the engine close the connection
+    static String connectionHeader(String responseConnection) {
+        HttpExchange exchange = current();
+        if (exchange == null) {
+            return null;
+        }
+        if (responseConnection != null) {
+            if (responseConnection.equalsIgnoreCase("close")) {
+                exchange.request.setCloseConnection(true);
+            }
+            return null;
+        }
+        if (exchange.request.isCloseConnection()) {
+            return "close";
+        }
+        return exchange.request.getStartLine().endsWith("HTTP/1.0") ? "keep-alive" : null;
+    }
+
+    public ResponseCompressor getCompressor() {
+        return compressor;
+    }
+
+    // Like "5" for the {id} in /api/workers/{id}. null if the route has no such parameter
+    public String getPathParameter(String name) {
+        int index = route != null ? route.parameterIndex(name) : -1;
+        if (index == -1) {
+            return null;
+        }
+        return request.getStartLine().substring(parameterBounds[index * 2], parameterBounds[index * 2 + 1]);
+    }
+
+    // Called by ResponseWriter. The status is read from "HTTP/1.1 200 OK" without copying it out of the line.
+    // bytes is the size of the body, or -1 for a chunked body
+    static void responseWritten(String statusLine, long bytes, long nanos) {
+        HttpExchange exchange = current();
+        if (exchange == null) {
+            return;
+        }
+        int status = 0;
+        int start = statusLine.indexOf(' ') + 1;
+        for (int i = start; i < start + 3 && i < statusLine.length(); i++) {
+            char c = statusLine.charAt(i);
+            if (c < '0' || c > '9') {
+                status = 0;
+                break;
+            }
+            status = status * 10 + (c - '0');
+        }
+        exchange.status = status;
+        exchange.responseBytes = bytes;
+        exchange.writeNanos += nanos;
+    }
+
+    // 0 if no response has been written
+    int getStatus() {
+        return status;
+    }
+
+    long getResponseBytes() {
+        return responseBytes;
+    }
+
+    long getWriteNanos() {
+        return writeNanos;
+    }
+
+    Router.Route route(Router router) {
+        route = router.find(request.getStartLine(), pathStart, pathEnd, parameterBounds);
+        return route;
+    }
+}
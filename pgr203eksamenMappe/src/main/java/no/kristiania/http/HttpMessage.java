@@ -1,89 +1,69 @@
 package no.kristiania.http;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.Socket;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
 import java.util.Map;
 
 public class HttpMessage {
     private String startLine;
     private final Map<String, String> headers;
     private final String body;
-
-    public HttpMessage(Socket socket) throws IOException {
-        startLine = readLine(socket);
-
-        // After start line the response contains 0 or more response header
-        headers = readHeaders(socket);
-
-        // Response header content-length tells who many bytes the response body is
-        String contentLength = headers.get("Content-Length");
-        if (contentLength != null) {
-            body = readBody(socket, Integer.parseInt(contentLength));
-        } else {
-            body = null;
-        }
-    }
+    private byte[] content;
+    // How long the parser took from the first byte of the message until it was complete
+    private long parseNanos;
+    // On a request: the connection is closed after the response, so the response says Connection: close
+    private boolean closeConnection;
 
     public HttpMessage(String body) {
         startLine = "HTTP/1.1 200 OK";
-        headers = new HashMap<>();
-        headers.put("Content-length", String.valueOf(body.length()));
-        headers.put("Connection", "close");
+        headers = HttpMessageParser.newHeaderMap();
         this.body = body;
+        headers.put("Content-Length", String.valueOf(getContent().length));
     }
 
-    public HttpMessage(){
-        headers = new HashMap<>();
+    public HttpMessage(byte[] content) {
+        startLine = "HTTP/1.1 200 OK";
+        headers = HttpMessageParser.newHeaderMap();
         this.body = null;
+        this.content = content;
+        headers.put("Content-Length", String.valueOf(content.length));
     }
 
-    public static String readLine(Socket socket) throws IOException {
-        StringBuilder line = new StringBuilder();
-        int c;
-        while ((c = socket.getInputStream().read()) != -1) {
-            // each line ends with \r\n (CRLF - carriage return, line feed)
-            if (c == '\r') {
-                socket.getInputStream().read(); // read and ignore the following \n
-                break;
-            }
-            line.append((char)c);
-        }
-        return line.toString();
+    // content is the body as it was received, before any decoding
+    HttpMessage(String startLine, Map<String, String> headers, String body, byte[] content) {
+        this.startLine = startLine;
+        this.headers = headers;
+        this.body = body;
+        this.content = content;
     }
 
-    static String readBody(Socket socket, int contentLength) throws IOException {
-        StringBuilder stringBody = new StringBuilder();
-        for (int i = 0; i < contentLength; i++) {
-            // Read content body based on content-length
-            stringBody.append((char) socket.getInputStream().read());
-        }
-        String body = stringBody.toString();
-        body = decodeValue(body);
-        return body;
+    long getParseNanos() {
+        return parseNanos;
     }
 
-    public static String decodeValue(String value) throws UnsupportedEncodingException{
-        return URLDecoder.decode(value, StandardCharsets.UTF_8.toString());
+    void setParseNanos(long parseNanos) {
+        this.parseNanos = parseNanos;
     }
 
-    static Map<String, String> readHeaders(Socket socket) throws IOException {
-        Map<String, String> headers = new HashMap<>();
-        String headerLine;
-        while (!(headerLine = readLine(socket)).isEmpty()) {
-            // response header consists "name: value"
-            int colonPos = headerLine.indexOf(':');
-            // parse header
-            String headerName = headerLine.substring(0, colonPos);
-            String headerValue = headerLine.substring(colonPos+1).trim();
+    boolean isCloseConnection() {
+        return closeConnection;
+    }
 
-            // store headers
-            headers.put(headerName, headerValue);
-        }
-        return headers;
+    void setCloseConnection(boolean closeConnection) {
+        this.closeConnection = closeConnection;
+    }
+
+    public HttpMessage(){
+        headers = HttpMessageParser.newHeaderMap();
+        this.body = null;
+    }
+
+    public static String decodeValue(String value) throws UnsupportedEncodingException{
+        return URLDecoder.decode(value, StandardCharsets.UTF_8.toString());
     }
 
     public String getStartLine() {
@@ -98,15 +78,49 @@ public class HttpMessage {
         return body;
     }
 
+    // The body as it is sent: Content-Length counts these bytes, not the characters in the body
+    public byte[] getContent() {
+        if (content == null && body != null) {
+            content = body.getBytes(StandardCharsets.UTF_8);
+        }
+        return content;
+    }
+
+    // HTTP/1.1 connections stay open unless the client asks to close, HTTP/1.0 connections are closed
+    public boolean isKeepAlive() {
+        String connection = headers.get("Connection");
+        if (startLine.endsWith("HTTP/1.0")) {
+            return "keep-alive".equalsIgnoreCase(connection);
+        }
+        return !"close".equalsIgnoreCase(connection);
+    }
+
     public void write(Socket clientSocket) throws IOException {
-        clientSocket.getOutputStream().write((startLine + "\r\n").getBytes());
-        for(String headerName : headers.keySet()){
-            clientSocket.getOutputStream().write((headerName + ": " +  headers.get(headerName) + "\r\n").getBytes());
+        byte[] content = getContent();
+        HttpExchange exchange = HttpExchange.current();
+        if (exchange != null && exchange.getCompressor() != null) {
+            content = exchange.getCompressor().compressResponse(exchange, headers, content);
+        }
+        ResponseWriter.write(clientSocket.getOutputStream(), startLine, headers, content);
+    }
+
+    // For bodies that are written as they are produced, like rows from the database. The head is sent now, and
+    // what is written to the returned stream is sent in chunks. Closing the stream ends the response.
+    // If the body can't be finished, don't close the stream - close the connection, so the client sees it is cut off
+    public OutputStream writeChunked(Socket clientSocket) throws IOException {
+        HttpExchange exchange = HttpExchange.current();
+        String encoding = null;
+        if (exchange != null && exchange.getCompressor() != null) {
+            encoding = exchange.getCompressor().startStream(exchange, headers);
         }
-        clientSocket.getOutputStream().write(("\r\n").getBytes());
-        if (body != null){
-            clientSocket.getOutputStream().write((body).getBytes());
+        headers.put("Transfer-Encoding", "chunked");
+        ResponseWriter.writeHead(clientSocket.getOutputStream(), startLine, headers, -1);
+        if (HttpExchange.isHeadRequest()) {
+            // No body for HEAD, so what the controller writes goes nowhere
+            return OutputStream.nullOutputStream();
         }
+        ChunkedOutputStream chunked = new ChunkedOutputStream(clientSocket.getOutputStream());
+        return encoding != null ? exchange.getCompressor().compressStream(exchange, encoding, chunked) : chunked;
     }
 
     public void setStartLine(String startLine) {
@@ -0,0 +1,312 @@
+package no.kristiania.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Parses a HTTP message from bytes as they arrive, so the caller never has to wait for a whole message
+public class HttpMessageParser {
+
+    public static final int DEFAULT_MAX_HEADER_SIZE = 8 * 1024;
+    public static final int DEFAULT_MAX_BODY_SIZE = 1024 * 1024;
+    // The body buffer starts this small and grows as the bytes arrive. A client that sends a large Content-Length
+    // and then nothing only costs us this much
+    private static final int INITIAL_BODY_SIZE = 8 * 1024;
+
+    // In CHUNKED, chunks tells where in the body we are
+    private enum State { START_LINE, HEADERS, BODY, CHUNKED }
+
+    private final int maxHeaderSize;
+    private final int maxBodySize;
+    private final Map<String, Integer> bodyLimits = new HashMap<>();
+
+    private State state = State.START_LINE;
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private int headerSize;
+
+    private String startLine;
+    private Map<String, String> headers = newHeaderMap();
+    private byte[] body;
+    private int bodyPosition;
+    // The Content-Length of the body that is being read
+    private int bodyLength;
+    private final ChunkedFraming chunks = new ChunkedFraming();
+    // Looked up once per message, when the start line has been read
+    private int bodyLimit;
+    // The path is one of those in bodyLimits: the body is kept as bytes
+    private boolean bulkBody;
+    // When the first byte of the current message arrived, 0 between messages
+    private long messageStarted;
+    // Set by parseHead: the message is returned when the headers end, and the body is left in the input
+    private boolean headOnly;
+
+    public HttpMessageParser() {
+        this(DEFAULT_MAX_HEADER_SIZE, DEFAULT_MAX_BODY_SIZE);
+    }
+
+    public HttpMessageParser(int maxHeaderSize, int maxBodySize) {
+        this.maxHeaderSize = maxHeaderSize;
+        this.maxBodySize = maxBodySize;
+    }
+
+    // Header names are case-insensitive: "Content-Length" and "content-length" is the same header
+    static Map<String, String> newHeaderMap() {
+        return new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    }
+
+    // Returns the message when it is complete, or null if more input is needed.
+    // Bytes after the end of the message are left in the input buffer
+    public HttpMessage parse(ByteBuffer input) throws IOException {
+        if (messageStarted == 0 && input.hasRemaining()) {
+            messageStarted = System.nanoTime();
+        }
+        while (input.hasRemaining()) {
+            if (state == State.BODY) {
+                int length = Math.min(input.remaining(), bodyLength - bodyPosition);
+                ensureBodyCapacity(length, bodyLength);
+                input.get(body, bodyPosition, length);
+                bodyPosition += length;
+                if (bodyPosition == bodyLength) {
+                    return completeBody();
+                }
+                continue;
+            }
+            if (state == State.CHUNKED && chunks.isInData()) {
+                int length = (int) Math.min(input.remaining(), chunks.getRemaining());
+                ensureBodyCapacity(length, bodyLimit);
+                input.get(body, bodyPosition, length);
+                bodyPosition += length;
+                chunks.consumed(length);
+                continue;
+            }
+
+            // each line ends with \r\n (CRLF - carriage return, line feed). Copy up to the \n in one go
+            int newlinePos = indexOf(input, (byte) '\n');
+            int end = newlinePos != -1 ? newlinePos : input.limit();
+            appendToLine(input, end - input.position());
+            if (newlinePos == -1) {
+                return null;
+            }
+            input.get(); // skip \n
+            int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+            HttpMessage message = endOfLine(new String(line, 0, length, StandardCharsets.UTF_8));
+            lineLength = 0;
+            if (message != null) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    // Like parse, but returns the message as soon as the headers are complete, without a body.
+    // The body is left in the input, for the caller to read as it arrives (see HttpBodyInputStream)
+    public HttpMessage parseHead(ByteBuffer input) throws IOException {
+        headOnly = true;
+        try {
+            return parse(input);
+        } finally {
+            headOnly = false;
+        }
+    }
+
+    private static int indexOf(ByteBuffer input, byte value) {
+        for (int i = input.position(); i < input.limit(); i++) {
+            if (input.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void appendToLine(ByteBuffer input, int length) throws HttpParseException {
+        headerSize += length + 1;
+        if (headerSize > maxHeaderSize) {
+            throw new HttpParseException(431, "Request Header Fields Too Large");
+        }
+        if (lineLength + length > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+        }
+        input.get(line, lineLength, length);
+        lineLength += length;
+    }
+
+    private HttpMessage endOfLine(String text) throws IOException {
+        if (state == State.CHUNKED) {
+            // The header limit is for each of these lines, not for all of them together
+            headerSize = 0;
+            return endOfChunkLine(text);
+        }
+        if (state == State.START_LINE) {
+            // Ignore empty lines before the start line
+            if (!text.isEmpty()) {
+                if (!isValidStartLine(text)) {
+                    throw new HttpParseException(400, "Bad Request");
+                }
+                startLine = text;
+                findBodyLimit(text);
+                state = State.HEADERS;
+            } else {
+                headerSize = 0;
+            }
+            return null;
+        }
+
+        if (!text.isEmpty()) {
+            // header consists "name: value"
+            int colonPos = text.indexOf(':');
+            if (colonPos == -1) {
+                throw new HttpParseException(400, "Bad Request");
+            }
+            String name = text.substring(0, colonPos).trim();
+            // With two lengths, we can't know where the message ends - and another server in between may pick the
+            // other one (request smuggling)
+            if (headers.put(name, text.substring(colonPos + 1).trim()) != null && name.equalsIgnoreCase("Content-Length")) {
+                throw new HttpParseException(400, "Bad Request");
+            }
+            return null;
+        }
+
+        // Empty line ends the headers. Content-Length tells how many bytes the body is,
+        // unless it is sent in chunks
+        if (headOnly) {
+            return complete(null);
+        }
+        String transferEncoding = headers.get("Transfer-Encoding");
+        if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+            body = new byte[Math.min(INITIAL_BODY_SIZE, bodyLimit)];
+            bodyPosition = 0;
+            chunks.reset();
+            state = State.CHUNKED;
+            return null;
+        }
+        String contentLength = headers.get("Content-Length");
+        if (contentLength == null) {
+            return complete(null);
+        }
+        int bodySize;
+        try {
+            bodySize = Integer.parseInt(contentLength);
+        } catch (NumberFormatException e) {
+            throw new HttpParseException(400, "Bad Request");
+        }
+        if (bodySize < 0) {
+            throw new HttpParseException(400, "Bad Request");
+        }
+        if (bodySize > bodyLimit) {
+            throw new HttpParseException(413, "Payload Too Large");
+        }
+        body = new byte[Math.min(bodySize, INITIAL_BODY_SIZE)];
+        bodyLength = bodySize;
+        bodyPosition = 0;
+        if (bodySize == 0) {
+            return complete("");
+        }
+        state = State.BODY;
+        return null;
+    }
+
+    // A request line is "METHOD SP target SP version", like "GET /echo HTTP/1.1". A status line is
+    // "HTTP/1.1 200 OK" - the reason may have spaces, or be left out
+    private static boolean isValidStartLine(String text) {
+        if (text.startsWith("HTTP/")) {
+            return text.indexOf(' ') > "HTTP/".length();
+        }
+        int methodEnd = text.indexOf(' ');
+        int targetEnd = text.indexOf(' ', methodEnd + 1);
+        return methodEnd > 0 && targetEnd > methodEnd + 1
+                && text.indexOf(' ', targetEnd + 1) == -1
+                && text.startsWith("HTTP/", targetEnd + 1);
+    }
+
+    private HttpMessage endOfChunkLine(String text) throws IOException {
+        if (!chunks.line(text)) {
+            throw new HttpParseException(400, "Bad Request");
+        }
+        if (chunks.isDone()) {
+            body = Arrays.copyOf(body, bodyPosition);
+            return completeBody();
+        }
+        if (chunks.getRemaining() > bodyLimit - bodyPosition) {
+            throw new HttpParseException(413, "Payload Too Large");
+        }
+        return null;
+    }
+
+    private HttpMessage completeBody() throws IOException {
+        if (bulkBody) {
+            // A bulk body, like an import, is only kept as bytes: the controller decodes it line by line, so one bad
+            // line doesn't fail the whole request, and there is no String copy of it
+            return complete(null);
+        }
+        String text = new String(body, StandardCharsets.UTF_8);
+        // Form data is decoded. Other bodies (like gzip responses or CSV) are kept as they are
+        String contentType = headers.get("Content-Type");
+        if (startLine.startsWith("HTTP/") || (contentType != null && !contentType.startsWith("application/x-www-form-urlencoded"))) {
+            return complete(text);
+        }
+        try {
+            return complete(HttpMessage.decodeValue(text));
+        } catch (IllegalArgumentException e) {
+            // Like a % that isn't followed by two hex digits
+            throw new HttpParseException(400, "Bad Request");
+        }
+    }
+
+    private HttpMessage complete(String messageBody) {
+        HttpMessage message = new HttpMessage(startLine, headers, messageBody, body);
+        message.setParseNanos(System.nanoTime() - messageStarted);
+        messageStarted = 0;
+        state = State.START_LINE;
+        startLine = null;
+        headers = newHeaderMap();
+        headerSize = 0;
+        body = null;
+        return message;
+    }
+
+    // Lets requests to one path, like a bulk import, have a larger body than the others. The body is not decoded:
+    // HttpMessage.getBody() is null, and getContent() has the bytes as they were sent
+    public HttpMessageParser allowLargerBody(String path, int maxBodySize) {
+        bodyLimits.put(path, maxBodySize);
+        return this;
+    }
+
+    // Doubles the body buffer when the next bytes don't fit, but never beyond max
+    private void ensureBodyCapacity(int length, int max) {
+        if (bodyPosition + length > body.length) {
+            body = Arrays.copyOf(body, Math.min(max, Math.max(body.length * 2, bodyPosition + length)));
+        }
+    }
+
+    // Compares the path of the request line with the paths in bodyLimits in place. Responses have no path
+    private void findBodyLimit(String startLine) {
+        bodyLimit = maxBodySize;
+        bulkBody = false;
+        if (bodyLimits.isEmpty() || startLine.startsWith("HTTP/")) {
+            return;
+        }
+        int pathStart = startLine.indexOf(' ') + 1;
+        int pathEnd = startLine.indexOf(' ', pathStart);
+        int questionPos = startLine.indexOf('?', pathStart);
+        if (questionPos != -1 && questionPos < pathEnd) {
+            pathEnd = questionPos;
+        }
+        for (Map.Entry<String, Integer> entry : bodyLimits.entrySet()) {
+            String path = entry.getKey();
+            if (path.length() == pathEnd - pathStart && startLine.startsWith(path, pathStart)) {
+                bodyLimit = entry.getValue();
+                bulkBody = true;
+                return;
+            }
+        }
+    }
+
+    public boolean isIdle() {
+        return state == State.START_LINE && lineLength == 0;
+    }
+}
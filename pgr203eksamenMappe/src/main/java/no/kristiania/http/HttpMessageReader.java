@@ -0,0 +1,114 @@
+package no.kristiania.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+// Reads HTTP messages from a stream in blocks instead of one byte at a time.
+// Use one reader per connection: bytes read past the end of a message belong to the next (pipelined) message
+public class HttpMessageReader {
+    private final InputStream inputStream;
+    private final HttpMessageParser parser;
+    private final ByteBuffer buffer;
+
+    public HttpMessageReader(InputStream inputStream) {
+        this(inputStream, new HttpMessageParser());
+    }
+
+    public HttpMessageReader(InputStream inputStream, HttpMessageParser parser) {
+        this.inputStream = inputStream;
+        this.parser = parser;
+        buffer = ByteBuffer.allocate(8 * 1024);
+        buffer.flip();
+    }
+
+    // The rest of the stream, starting with what has been read into the buffer and not parsed yet
+    private final InputStream remaining = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            if (!buffer.hasRemaining() && fill() == -1) {
+                return -1;
+            }
+            return buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                // Large reads go straight into the caller's array instead of through the buffer
+                if (length >= buffer.capacity()) {
+                    return inputStream.read(bytes, offset, length);
+                }
+                if (fill() == -1) {
+                    return -1;
+                }
+            }
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+    };
+
+    // Returns null if the stream ends before a new message starts
+    public HttpMessage readMessage() throws IOException {
+        while (true) {
+            HttpMessage message = parser.parse(buffer);
+            if (message != null) {
+                return message;
+            }
+            if (fill() == -1) {
+                if (parser.isIdle()) {
+                    return null;
+                }
+                throw new IOException("Connection closed in the middle of a message");
+            }
+        }
+    }
+
+    // Like readMessage, but returns when the headers have been read. Read the body from getInput(),
+    // and only that, before the next message is read. Returns null if the stream ends before a new message starts
+    public HttpMessage readHead() throws IOException {
+        while (true) {
+            HttpMessage message = parser.parseHead(buffer);
+            if (message != null) {
+                return message;
+            }
+            if (fill() == -1) {
+                if (parser.isIdle()) {
+                    return null;
+                }
+                throw new IOException("Connection closed in the middle of a message");
+            }
+        }
+    }
+
+    // Waits, for at most the socket's SO_TIMEOUT, until the next message starts to arrive or the stream ends.
+    // Returns false if the read timed out. The socket can still be read after a timeout, so this can be called again
+    public boolean awaitMessage() throws IOException {
+        if (buffer.hasRemaining()) {
+            return true;
+        }
+        try {
+            fill();
+            return true;
+        } catch (SocketTimeoutException e) {
+            buffer.limit(0);
+            return false;
+        }
+    }
+
+    public InputStream getInput() {
+        return remaining;
+    }
+
+    private int fill() throws IOException {
+        buffer.clear();
+        int length = inputStream.read(buffer.array(), 0, buffer.capacity());
+        buffer.limit(Math.max(length, 0));
+        return length;
+    }
+}
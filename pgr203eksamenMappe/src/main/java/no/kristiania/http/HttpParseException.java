@@ -0,0 +1,23 @@
+package no.kristiania.http;
+
+import java.io.IOException;
+
+// Thrown when a request can't be parsed. The server answers with the status code and closes the connection
+public class HttpParseException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    public HttpParseException(int statusCode, String reason) {
+        super(statusCode + " " + reason);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getStatusLine() {
+        return "HTTP/1.1 " + getMessage();
+    }
+}
@@ -0,0 +1,309 @@
+package no.kristiania.http;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// The requests from PooledHttpClient.sendAsync to one host. They are sent on one connection without waiting for
+// the responses (HTTP/1.1 pipelining), and the server answers them in order. Each connection has a thread that
+// writes the requests and one that reads the responses and completes the requests that are first in line. So the
+// reader never waits for a write, and a server that waits for us to read before it reads more can't lock us up.
+// At most maxInFlight requests are sent and not answered - the rest wait here until a response comes back
+class HttpPipeline {
+
+    // Sending these twice has the same effect as sending them once, so they can be sent again if the connection
+    // is lost before they are answered. Other requests (POST) are sent one at a time, with nothing after them
+    private static final Set<String> IDEMPOTENT_METHODS = Set.of("GET", "PUT", "DELETE", "OPTIONS");
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final PooledHttpClient client;
+    private final String hostname;
+    private final int port;
+
+    // Guarded by this
+    private final Deque<Pending> waiting = new ArrayDeque<>();
+    private Connection connection;
+    // A new connection is being opened. Only one thread does it, outside the lock
+    private boolean connecting;
+    private int inFlight;
+    // A non-idempotent request has been sent and not answered, so nothing more can be sent until it is
+    private boolean blocked;
+    private boolean closed;
+
+    HttpPipeline(PooledHttpClient client, String hostname, int port) {
+        this.client = client;
+        this.hostname = hostname;
+        this.port = port;
+    }
+
+    CompletableFuture<HttpClientResponse> submit(HttpClientRequest request) {
+        Pending pending = new Pending(request);
+        synchronized (this) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IOException("Client is closed"));
+            }
+            waiting.addLast(pending);
+        }
+        dispatch();
+        return pending.future;
+    }
+
+    // Hands the waiting requests to the writer of the connection. The responses come back in the order the requests
+    // are written, so they are put in sent and in the write queue in the same order, under the lock
+    private void dispatch() {
+        while (true) {
+            synchronized (this) {
+                if (closed) {
+                    failAll(new IOException("Client is closed"));
+                    return;
+                }
+                if (connecting || waiting.isEmpty() || inFlight >= client.getMaxInFlightPerHost() || blocked) {
+                    return;
+                }
+                boolean idempotent = isIdempotent(waiting.peekFirst().request);
+                if (!idempotent && inFlight > 0) {
+                    return;
+                }
+                if (connection != null && !connection.closed) {
+                    Pending pending = waiting.pollFirst();
+                    connection.sent.addLast(pending);
+                    connection.toWrite.add(pending);
+                    pending.attempts++;
+                    inFlight++;
+                    blocked = !idempotent;
+                    continue;
+                }
+                connecting = true;
+            }
+            // Connecting can take up to connectTimeout, so it is done without the lock. The requests that come in
+            // meanwhile wait, and are sent by the loop when we are connected
+            Connection connected = null;
+            IOException failure = null;
+            try {
+                connected = connect();
+            } catch (IOException e) {
+                failure = e;
+            }
+            synchronized (this) {
+                connecting = false;
+                if (connected == null) {
+                    failAll(failure);
+                    return;
+                }
+                connection = connected;
+                if (closed) {
+                    connected.closeSocket();
+                }
+            }
+        }
+    }
+
+    // Writes the requests in the order they were queued. What is queued while a write is going on goes out
+    // together in the next write
+    private void writeRequests(Connection connection) {
+        try {
+            while (true) {
+                Pending pending = connection.toWrite.take();
+                do {
+                    connection.output.write(pending.bytes);
+                } while ((pending = connection.toWrite.poll()) != null);
+                connection.output.flush();
+            }
+        } catch (InterruptedException e) {
+            // The connection is closed
+        } catch (IOException e) {
+            // The reader thread finds out too, and sends the unanswered requests again or fails them
+            connection.closeSocket();
+        }
+    }
+
+    private Connection connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(hostname, port), client.getConnectTimeout());
+            socket.setSoTimeout(client.getReadTimeout());
+            socket.setTcpNoDelay(true);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        Connection connection = new Connection(socket);
+        connection.writer = new Thread(() -> writeRequests(connection), "http-client-writer-" + hostname + ":" + port);
+        connection.writer.setDaemon(true);
+        connection.writer.start();
+        Thread reader = new Thread(() -> readResponses(connection), "http-client-" + hostname + ":" + port);
+        reader.setDaemon(true);
+        reader.start();
+        return connection;
+    }
+
+    private void readResponses(Connection connection) {
+        IOException failure;
+        try {
+            while (true) {
+                HttpMessage head = connection.reader.readHead();
+                if (head == null) {
+                    failure = new EOFException("Connection closed before a response was received");
+                    break;
+                }
+                Pending pending;
+                synchronized (this) {
+                    pending = connection.sent.peekFirst();
+                }
+                if (pending == null) {
+                    failure = new IOException("Response without a request: " + head.getStartLine());
+                    break;
+                }
+                // Whether there is a body depends on the request, like HEAD
+                String method = pending.request.getMethod();
+                byte[] content = HttpBodyInputStream.forResponse(connection.reader.getInput(), method, head)
+                        .readAll(client.getMaxResponseSize());
+                boolean keepAlive = PooledHttpClient.isKeepAlive(head) && !HttpBodyInputStream.readsUntilClose(method, head);
+                boolean last;
+                synchronized (this) {
+                    connection.sent.pollFirst();
+                    connection.responses++;
+                    inFlight--;
+                    blocked = false;
+                    // After close(), the connection is closed when the last request on it has been answered
+                    last = !keepAlive || (closed && connection.sent.isEmpty());
+                    if (last) {
+                        connection.closed = true;
+                    }
+                }
+                complete(pending, head, content);
+                if (last) {
+                    failure = new EOFException("Connection closed");
+                    break;
+                }
+                dispatch();
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+        connectionClosed(connection, failure);
+    }
+
+    // The callbacks of the future run on another thread, so a slow callback doesn't stop the responses
+    // to the other requests from being read
+    private static void complete(Pending pending, HttpMessage head, byte[] content) {
+        try {
+            HttpClientResponse response = new HttpClientResponse(head.getStartLine(), head.getHeaders(), content);
+            pending.future.completeAsync(() -> response);
+        } catch (HttpParseException e) {
+            pending.future.completeExceptionally(e);
+        }
+    }
+
+    // Requests that were not answered are sent again on a new connection if that is safe, else they fail.
+    // A timeout or a response we can't parse is not the connection's fault, so they fail then too
+    private void connectionClosed(Connection connection, IOException failure) {
+        connection.closeSocket();
+        List<Pending> failed = new ArrayList<>();
+        synchronized (this) {
+            connection.closed = true;
+            // The requests that were not written yet are in sent too
+            connection.toWrite.clear();
+            boolean retry = !closed && !(failure instanceof SocketTimeoutException) && !(failure instanceof HttpParseException);
+            Pending pending;
+            while ((pending = connection.sent.pollLast()) != null) {
+                inFlight--;
+                if (retry && canRetry(pending, connection)) {
+                    waiting.addFirst(pending);
+                } else {
+                    failed.add(pending);
+                }
+            }
+            blocked = false;
+        }
+        for (Pending pending : failed) {
+            pending.future.completeExceptionally(failure);
+        }
+        dispatch();
+    }
+
+    // An idempotent request is tried again as long as the connections answer something, so a server that
+    // closes after every N requests doesn't make it fail. Anything else is only tried again if the connection had
+    // answered requests before it - the server probably closed it as idle, without reading the request
+    private static boolean canRetry(Pending pending, Connection connection) {
+        if (isIdempotent(pending.request)) {
+            if (connection.responses > 0) {
+                pending.attempts = 0;
+            }
+            return pending.attempts < MAX_ATTEMPTS;
+        }
+        return pending.attempts == 1 && connection.responses > 0;
+    }
+
+    static boolean isIdempotent(HttpClientRequest request) {
+        return IDEMPOTENT_METHODS.contains(request.getMethod());
+    }
+
+    private void failAll(IOException e) {
+        Pending pending;
+        while ((pending = waiting.pollFirst()) != null) {
+            pending.future.completeExceptionally(e);
+        }
+    }
+
+    // Requests that are waiting fail. Those that are sent still get their answers, and then the connection is closed
+    synchronized void close() {
+        closed = true;
+        failAll(new IOException("Client is closed"));
+        if (connection != null && connection.sent.isEmpty()) {
+            connection.closeSocket();
+        }
+    }
+
+    private static class Pending {
+        private final HttpClientRequest request;
+        private final byte[] bytes;
+        private final CompletableFuture<HttpClientResponse> future = new CompletableFuture<>();
+        private int attempts;
+
+        Pending(HttpClientRequest request) {
+            this.request = request;
+            this.bytes = request.toBytes();
+        }
+    }
+
+    private static class Connection {
+        private final Socket socket;
+        private final HttpMessageReader reader;
+        private final OutputStream output;
+        // Requests for the writer thread
+        private final BlockingQueue<Pending> toWrite = new LinkedBlockingQueue<>();
+        private Thread writer;
+        // Guarded by the HttpPipeline: queued for writing or written, and not answered, in the order they are written
+        private final Deque<Pending> sent = new ArrayDeque<>();
+        private boolean closed;
+        private int responses;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.reader = new HttpMessageReader(socket.getInputStream());
+            this.output = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+        }
+
+        void closeSocket() {
+            writer.interrupt();
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Nothing more to do with it
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package no.kristiania.http;
 
+import no.kristiania.database.PooledDataSource;
 import no.kristiania.database.Worker;
 import no.kristiania.database.WorkerDao;
 import no.kristiania.database.WorkerTaskDao;
@@ -9,100 +10,264 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import javax.sql.DataSource;
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 
 public class HttpServer {
 
     private static final Logger logger = LoggerFactory.getLogger(HttpServer.class);
 
-    private Map<String, HttpController> controllers;
+    // An idle keep-alive connection looks this often (milliseconds) whether other connections are waiting for its worker
+    private static final int IDLE_POLL_INTERVAL = 100;
+
+    private static final HtmlTemplate WORKER = HtmlTemplate.compile("<li>Name: {{firstName}} {{lastName}}</li><li>Email: {{email}}</li>");
+
+    private final Router router;
 
     private WorkerDao workerDao;
     private final ServerSocket serverSocket;
+    private final Executor executor;
+    private final ServerConfig config;
+    private final ResourceCache resourceCache;
+    private final StaticFileHandler staticFileHandler;
+    private final String cacheControl;
+    private final ResponseCompressor compressor;
+    private final RequestMetrics metrics = new RequestMetrics();
+    private final AccessLog accessLog;
 
     public HttpServer(int port, DataSource dataSource) throws IOException {
-        workerDao = new WorkerDao(dataSource);
-        WorkerTaskDao workerTaskDao = new WorkerTaskDao(dataSource);
-        controllers = Map.of(
-                "/api/newTask", new WorkerTaskPostController(workerTaskDao),
-                "/api/tasks", new WorkerTaskGetController(workerTaskDao),
-                "/api/taskOptions", new WorkerTaskOptionsController(workerTaskDao),
-                "/api/workersOptions", new WorkerOptionsController(workerDao),
-                "/api/updateWorker", new UpdateWorkerController(workerDao)
-        );
-        // Opens a entry point to our program for network clients
-        serverSocket = new ServerSocket(port);
+        this(port, dataSource, new ServerConfig());
+    }
+
+    public HttpServer(int port, DataSource dataSource, ServerConfig config) throws IOException {
+        this.config = config;
+        accessLog = config.createAccessLog();
+        compressor = new ResponseCompressor(config.isCompression(), config.getCompressionMinSize());
+        // Reads are served from memory for up to server.cacheTtl ms; our own writes update the cache right away
+        workerDao = new WorkerDao(dataSource, config.createEntityCache());
+        WorkerTaskDao workerTaskDao = new WorkerTaskDao(dataSource, config.createEntityCache());
+        // Built once here; requests are routed by walking the tree, see Router
+        router = new Router()
+                .add("GET", "/echo", this::handleEchoRequest)
+                .add("GET", "/api/workers", new EntityListController<>(workerDao, "/api/workers", config.getStreamingFetchSize(),
+                        Worker::getId, (html, worker) -> WORKER.render(html, worker.getFirstName(), worker.getLastName(), worker.getEmail())))
+                .add("GET", "/api/workers/{id}", this::handleGetWorker)
+                .add("POST", "/api/newWorker", this::handlePostWorker)
+                .add("POST", "/api/workers/import", new WorkerImportController(workerDao))
+                .add("POST", "/api/newTask", new WorkerTaskPostController(workerTaskDao))
+                .add("GET", "/api/tasks", new WorkerTaskGetController(workerTaskDao, config.getStreamingFetchSize()))
+                .add("GET", "/api/taskOverview", new TaskOverviewController(workerTaskDao))
+                .add("GET", "/api/taskOptions", new WorkerTaskOptionsController(workerTaskDao))
+                .add("GET", "/api/workersOptions", new WorkerOptionsController(workerDao))
+                .add("POST", "/api/updateWorker", new UpdateWorkerController(workerDao))
+                .add("GET", "/admin/compression", new CompressionStatsController(compressor))
+                .add("GET", "/admin/metrics", new MetricsController(metrics, accessLog))
+                .add("GET", "/admin/cache", new CacheStatsController(Map.of("workers", workerDao, "tasks", workerTaskDao)));
+        if (dataSource instanceof PooledDataSource) {
+            router.add("GET", "/admin/pool", new PoolStatsController((PooledDataSource) dataSource));
+        }
+        resourceCache = new ResourceCache(config.getDevContentDirectory() != null ? Paths.get(config.getDevContentDirectory()) : null);
+        staticFileHandler = config.getContentRoot() != null ? new StaticFileHandler(Paths.get(config.getContentRoot()), compressor) : null;
+        // Without a max-age the browser keeps the file, but checks with us (If-None-Match) before using it
+        cacheControl = config.getStaticMaxAge() > 0 ? "public, max-age=" + config.getStaticMaxAge() : "no-cache";
+        executor = RequestExecutors.create(config);
+
+        // Opens a entry point to our program for network clients.
+        // A ServerSocketChannel gives us sockets with a channel, so files can be sent with transferTo
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverSocket = serverChannel.socket();
+
+        if (config.getEngine().equals("nio")) {
+            new NioServerEngine(serverChannel, config, executor, this::handleRequest).start();
+            logger.warn("Server startet on port {} with {} event loops", serverSocket.getLocalPort(), config.getEventLoops());
+            return;
+        }
+
         logger.warn("Server startet on port {}", serverSocket.getLocalPort());
 
         // new Threads executes the code in a separate "thread", that is: In parallel
         new Thread(() -> { // anonymous function with code that will be executed in parallel
             while (true) {
-                try(Socket clientSocket = serverSocket.accept()) {
+                try {
                     // accept waits for a client to try to connect - blocks
-                    handleRequest(clientSocket);
-                } catch (IOException | SQLException e) {
-                    // If something went wrong - print out exception and try again
-                    e.printStackTrace();
+                    Socket clientSocket = serverChannel.accept().socket();
+                    // The accept thread only hands off the socket, so a slow request doesn't stall other clients
+                    dispatch(clientSocket);
+                } catch (IOException e) {
+                    // If something went wrong - log the exception and try again
+                    logger.warn("Failed to accept connection", e);
                 }
             }
-        }).start(); // Start the threads, so the code inside executes without block the current thread
+        }, "http-accept").start(); // Start the threads, so the code inside executes without block the current thread
 
     }
 
-    public int getPort() {
-        return serverSocket.getLocalPort();
+    private void dispatch(Socket clientSocket) throws IOException {
+        try {
+            executor.execute(() -> handleConnection(clientSocket));
+        } catch (RejectedExecutionException e) {
+            logger.warn("All workers busy, rejecting connection from {}", clientSocket.getInetAddress());
+            try (clientSocket) {
+                HttpMessage response = new HttpMessage("");
+                response.setStartLine("HTTP/1.1 503 Service Unavailable");
+                response.getHeaders().put("Connection", "close");
+                response.write(clientSocket);
+            }
+        }
     }
 
-    // This code will be executed for each client
-    private void handleRequest(Socket clientSocket) throws IOException, SQLException {
+    // Serves requests on the connection until the client closes it, it has been idle for too long
+    // or it has used up its requests. Pipelined requests are read and answered one by one, in order
+    private void handleConnection(Socket clientSocket) {
+        try (clientSocket) {
+            clientSocket.setSoTimeout(config.getKeepAliveTimeout());
+            // Each response is written in one go, so there is nothing to gain from Nagle's algorithm
+            clientSocket.setTcpNoDelay(true);
+            HttpMessageReader reader = new HttpMessageReader(clientSocket.getInputStream(), config.createParser());
+            for (int requestCount = 1; ; requestCount++) {
+                if (requestCount > 1 && !awaitNextRequest(clientSocket, reader)) {
+                    return;
+                }
+                HttpMessage request;
+                try {
+                    request = reader.readMessage();
+                } catch (HttpParseException e) {
+                    writeParseError(clientSocket, e);
+                    return;
+                }
+                if (request == null) {
+                    // The client closed the connection
+                    return;
+                }
+                // When other connections are waiting for a worker, this one is closed after the response and has to queue up again
+                if (!request.isKeepAlive() || requestCount >= config.getMaxKeepAliveRequests() || hasWaitingConnections()) {
+                    request.setCloseConnection(true);
+                }
+                handleRequest(request, clientSocket);
+                if (request.isCloseConnection()) {
+                    return;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            // The connection was idle for longer than server.keepAliveTimeout
+        } catch (IOException | SQLException e) {
+            // If something went wrong - log the exception and try again
+            logger.warn("Request failed", e);
+        }
+    }
 
-        HttpMessage request = new HttpMessage(clientSocket);
-        String requestLine = request.getStartLine();
-        System.out.println("REQUEST " + requestLine);
-        // Example "GET /echo?body=hello HTTP/1.1"
+    // An idle keep-alive connection would hold on to its worker thread until keepAliveTimeout. Instead the wait for
+    // the next request is done in short slices, and the connection is given up as soon as other connections are
+    // waiting for a worker. Returns false when the connection should be closed
+    private boolean awaitNextRequest(Socket clientSocket, HttpMessageReader reader) throws IOException {
+        int keepAliveTimeout = config.getKeepAliveTimeout();
+        long deadline = System.currentTimeMillis() + keepAliveTimeout;
+        clientSocket.setSoTimeout(keepAliveTimeout > 0 ? Math.min(IDLE_POLL_INTERVAL, keepAliveTimeout) : IDLE_POLL_INTERVAL);
+        try {
+            while (!reader.awaitMessage()) {
+                if (hasWaitingConnections() || (keepAliveTimeout > 0 && System.currentTimeMillis() >= deadline)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            // The rest of the request must arrive within the timeout as before
+            clientSocket.setSoTimeout(keepAliveTimeout);
+        }
+    }
 
-        // Example GET, POST, PUT, DELETE etc
-        String requestMethod = requestLine.split(" ")[0];
+    private boolean hasWaitingConnections() {
+        return executor instanceof ThreadPoolExecutor && !((ThreadPoolExecutor) executor).getQueue().isEmpty();
+    }
 
-        String requestTarget = requestLine.split(" ")[1];
-        // Example "/echo?body=hello"
+    static void writeParseError(Socket clientSocket, HttpParseException e) {
+        try {
+            HttpMessage response = new HttpMessage("");
+            response.setStartLine(e.getStatusLine());
+            response.getHeaders().put("Connection", "close");
+            response.write(clientSocket);
+        } catch (IOException ignored) {
+            // The client is gone
+        }
+    }
 
-        int questionPos = requestTarget.indexOf('?');
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
 
-        String requestPath = questionPos != -1 ? requestTarget.substring(0, questionPos) : requestTarget;
+    // Both the blocking and the nio engine end up here with a complete request
+    private void handleRequest(HttpMessage request, Socket clientSocket) throws IOException, SQLException {
+        String requestLine = request.getStartLine();
+        // Example "GET /echo?body=hello HTTP/1.1". The method and the path are found in place, without splitting the line
+        int methodEnd = requestLine.indexOf(' ');
+        if (methodEnd <= 0) {
+            // Like "FOO": there is no method and path to route on, or to log
+            request.setCloseConnection(true);
+            writeParseError(clientSocket, new HttpParseException(400, "Bad Request"));
+            return;
+        }
+        int targetEnd = requestLine.indexOf(' ', methodEnd + 1);
+        if (targetEnd == -1) {
+            targetEnd = requestLine.length();
+        }
+        int pathEnd = requestLine.indexOf('?', methodEnd + 1);
+        if (pathEnd == -1 || pathEnd > targetEnd) {
+            pathEnd = targetEnd;
+        }
+        int method = Router.indexOf(requestLine, 0, methodEnd);
 
-        if (requestMethod.equals("POST")) {
-            if (requestPath.equals("/api/newWorker")){
-                handlePostWorker(clientSocket, request);
-            }else{
-                getController(requestPath).handle(request, clientSocket);
-            }
-        } else {
-            if (requestPath.equals("/echo")) {
-                handleEchoRequest(clientSocket, requestTarget, questionPos);
-            } else if (requestPath.equals("/api/workers")) {
-                handleGetWorkers(clientSocket);
-            } else {
-                HttpController controller =  controllers.get(requestPath);
-                if (controller != null ){
-                    controller.handle(request, clientSocket);
-                }else{
-                    handleFileRequest(clientSocket, requestPath);
+        // Lets the controllers see the path parameters, and the response side (compression) which request it is answering
+        HttpExchange exchange = HttpExchange.begin(request, methodEnd + 1, pathEnd, targetEnd, compressor);
+        long started = System.nanoTime();
+        String routeName = RequestMetrics.UNMATCHED_ROUTE;
+        try {
+            Router.Route route = exchange.route(router);
+            if (route == null) {
+                if (requestLine.startsWith("GET ") || requestLine.startsWith("HEAD ")) {
+                    routeName = RequestMetrics.STATIC_ROUTE;
+                    handleFileRequest(clientSocket, request, exchange.getPath());
+                } else {
+                    writeNotFound(clientSocket);
                 }
+                return;
+            }
+            routeName = route.getPattern();
+            HttpController controller = route.getController(method);
+            if (controller == null) {
+                HttpMessage response = new HttpMessage("");
+                response.setStartLine("HTTP/1.1 405 Method Not Allowed");
+                response.getHeaders().put("Allow", route.getAllowedMethods());
+                response.write(clientSocket);
+                return;
+            }
+            controller.handle(request, clientSocket);
+        } finally {
+            // A controller that failed without answering is counted as a 500
+            long writeNanos = exchange.getWriteNanos();
+            long handleNanos = System.nanoTime() - started - writeNanos;
+            int status = exchange.getStatus() != 0 ? exchange.getStatus() : 500;
+            metrics.record(routeName, status, request.getParseNanos(), handleNanos, writeNanos);
+            if (accessLog != null) {
+                accessLog.log(requestLine, methodEnd, pathEnd, status, exchange.getResponseBytes(),
+                        request.getParseNanos() + handleNanos + writeNanos);
             }
+            HttpExchange.end();
         }
     }
 
-    private HttpController getController(String requestPath) {
-        return controllers.get(requestPath);
-    }
-
-    private void handlePostWorker(Socket clientSocket, HttpMessage request) throws SQLException, IOException {
+    private void handlePostWorker(HttpMessage request, Socket clientSocket) throws SQLException, IOException {
         QueryString requestParameter = new QueryString(request.getBody());
 
         Worker worker = new Worker();
@@ -110,69 +275,87 @@ public class HttpServer {
         worker.setLastName(requestParameter.getParameter("last_name"));
         worker.setEmail(requestParameter.getParameter("email_address"));
         workerDao.insert(worker);
-        String body = "Okay";
-        String response = "HTTP/1.1 200 OK\r\n" +
-                "Connection: close\r\n" +
-                "Content-Length: " + body.length() + "\r\n" +
-                "\r\n" +
-                body;
-        clientSocket.getOutputStream().write(response.getBytes());
-    }
-
-    private void handleFileRequest(Socket clientSocket, String requestPath) throws IOException{
-        try(InputStream inputStream = getClass().getResourceAsStream(requestPath)){
-            if (inputStream == null){
-                String body = requestPath = "does not exist";
-                String response = "HTTP/1.1 404 Not Found\r\n" +
-                        "Content-Length: " + body.length() + "\r\n" +
-                        "Connection: close\r\n" +
-                        "\r\n" +
-                        body;
-                clientSocket.getOutputStream().write(response.getBytes());
-                return;
-            }
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-            inputStream.transferTo(buffer);
-
-            String contentType = "text/plain";
-            if (requestPath.endsWith(".html")) {
-                contentType = "text/html";
-            }if(requestPath.endsWith(".css")) {
-                contentType = "text/css";
-            }
-            String response = "HTTP/1.1 200 OK\r\n" +
-                    "Content-Length: " + buffer.toByteArray().length + "\r\n" +
-                    "Connection: close\r\n" +
-                    "Content-Type: " + contentType + "\r\n" +
-                    "\r\n";
-            clientSocket.getOutputStream().write(response.getBytes());
-            clientSocket.getOutputStream().write(buffer.toByteArray());
+        new HttpMessage("Okay").write(clientSocket);
+    }
+
+    private void handleFileRequest(Socket clientSocket, HttpMessage request, String requestPath) throws IOException{
+        if (staticFileHandler != null && staticFileHandler.handle(request, requestPath, clientSocket)) {
+            return;
+        }
+        ResourceCache.Resource resource = resourceCache.get(requestPath);
+        if (resource == null){
+            writeNotFound(clientSocket);
+            return;
         }
+
+        String encoding = compressor.chooseEncoding(request, resource.getContentType(), resource.getContent().length);
+
+        // The browser already has this version - tell it to use its copy
+        if (resource.matches(request.getHeaders().get("If-None-Match"), encoding)) {
+            HttpMessage response = new HttpMessage();
+            response.setStartLine("HTTP/1.1 304 Not Modified");
+            response.getHeaders().put("ETag", resource.getEtag(encoding));
+            response.getHeaders().put("Cache-Control", cacheControl);
+            response.write(clientSocket);
+            return;
+        }
+
+        // The compressed version is cached with the resource, so it is only compressed once
+        HttpMessage response = new HttpMessage(resource.getContent(encoding));
+        response.getHeaders().put("Content-Type", resource.getContentType());
+        if (encoding != null) {
+            response.getHeaders().put("Content-Encoding", encoding);
+            compressor.record(requestPath, resource.getContent().length, resource.getContent(encoding).length);
+        }
+        if (ResponseCompressor.isCompressible(resource.getContentType())) {
+            response.getHeaders().put("Vary", "Accept-Encoding");
+        }
+        response.getHeaders().put("ETag", resource.getEtag(encoding));
+        response.getHeaders().put("Cache-Control", cacheControl);
+        response.write(clientSocket);
     }
 
-    private void handleGetWorkers (Socket clientSocket) throws IOException, SQLException {
-        String body = "<ul>";
-        for (Worker worker : workerDao.list()) {
-            body += "<li>" + "Name: "+ worker.getFirstName() + " " + worker.getLastName()+ "</li>" + "<li>" + "Email: " + worker.getEmail() + "</li>";
+    // GET /api/workers/{id}
+    private void handleGetWorker(HttpMessage request, Socket clientSocket) throws IOException, SQLException {
+        Worker worker;
+        try {
+            worker = workerDao.retrieve(Integer.parseInt(HttpExchange.current().getPathParameter("id")));
+        } catch (NumberFormatException e) {
+            writeBadRequest(clientSocket, new IllegalArgumentException("The worker id must be a number"));
+            return;
         }
-        body += "</ul>";
-        String response = "HTTP/1.1 200 OK\r\n" +
-                "Content-Length: " + body.length() + "\r\n" +
-                "Content-Type: text/html\r\n" +
-                "Connection: close\r\n" +
-                "\r\n" +
-                body;
+        if (worker == null) {
+            writeNotFound(clientSocket);
+            return;
+        }
+        HtmlBuffer html = HtmlBuffer.forThread().appendRaw("<ul>");
+        WORKER.render(html, worker.getFirstName(), worker.getLastName(), worker.getEmail());
+        html.appendRaw("</ul>");
+        HttpMessage response = new HttpMessage(html.toByteArray());
+        response.getHeaders().put("Content-Type", "text/html");
+        response.write(clientSocket);
+    }
 
-        // Write the response back to the client
-        clientSocket.getOutputStream().write(response.getBytes());
+    static void writeNotFound(Socket clientSocket) throws IOException {
+        HttpMessage response = new HttpMessage("does not exist");
+        response.setStartLine("HTTP/1.1 404 Not Found");
+        response.write(clientSocket);
+    }
+
+    static void writeBadRequest(Socket clientSocket, IllegalArgumentException e) throws IOException {
+        HttpMessage response = new HttpMessage(e.getMessage());
+        response.setStartLine("HTTP/1.1 400 Bad Request");
+        response.getHeaders().put("Content-Type", "text/plain");
+        response.write(clientSocket);
     }
 
-    private void handleEchoRequest(Socket clientSocket, String requestTarget, int questionPos) throws IOException {
+    private void handleEchoRequest(HttpMessage request, Socket clientSocket) throws IOException {
+        String query = HttpExchange.getQuery(request);
         String statusCode = "200";
         String body = "Hello <strong>World</strong>!";
-        if (questionPos != -1) {
+        if (query != null) {
             // body=hello
-            QueryString queryString = new QueryString(requestTarget.substring(questionPos + 1));
+            QueryString queryString = new QueryString(query);
             if (queryString.getParameter("status") != null) {
                 statusCode = queryString.getParameter("status");
             }
@@ -180,14 +363,12 @@ public class HttpServer {
                 body = queryString.getParameter("body");
             }
         }
-        String response = "HTTP/1.1 " + statusCode + " OK\r\n" +
-                "Content-Length: " + body.length() + "\r\n" +
-                "Content-Type: text/plain\r\n" +
-                "\r\n" +
-                body;
+        HttpMessage response = new HttpMessage(body);
+        response.setStartLine("HTTP/1.1 " + statusCode + " OK");
+        response.getHeaders().put("Content-Type", "text/plain");
 
         // Write the response back to the client
-        clientSocket.getOutputStream().write(response.getBytes());
+        response.write(clientSocket);
     }
 
     public static void main(String[] args) throws IOException, SQLException {
@@ -195,18 +376,33 @@ public class HttpServer {
         try (FileReader fileReader = new FileReader("pgr203.properties")){
             properties.load(fileReader);
         }
-        PGSimpleDataSource dataSource = new PGSimpleDataSource();
-        dataSource.setURL(properties.getProperty("dataSource.url"));
-        dataSource.setUser(properties.getProperty("dataSource.username"));
-        dataSource.setPassword(properties.getProperty("dataSource.password"));
-        logger.info("Using database {}", dataSource.getUrl());
+        PGSimpleDataSource postgresDataSource = new PGSimpleDataSource();
+        postgresDataSource.setURL(properties.getProperty("dataSource.url"));
+        postgresDataSource.setUser(properties.getProperty("dataSource.username"));
+        postgresDataSource.setPassword(properties.getProperty("dataSource.password"));
+        logger.info("Using database {}", postgresDataSource.getUrl());
+        // Reuses connections instead of connecting to Postgres for every query
+        PooledDataSource dataSource = PooledDataSource.fromProperties(postgresDataSource, properties);
         Flyway.configure().dataSource(dataSource).load().migrate();
 
 
-        HttpServer server = new HttpServer(8080, dataSource);
+        HttpServer server = new HttpServer(8080, dataSource, ServerConfig.fromProperties(properties));
+        // Writes the access log records that are still in the buffer when the server is stopped
+        if (server.getAccessLog() != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(server.getAccessLog()::close));
+        }
         logger.info("Started on http://localhost:{}/index.html", 8080);
     }
 
+    public RequestMetrics getMetrics() {
+        return metrics;
+    }
+
+    // null when server.accessLog=off
+    public AccessLog getAccessLog() {
+        return accessLog;
+    }
+
     public List<Worker> getFirstName() throws SQLException{
         return workerDao.list();
     }
@@ -0,0 +1,30 @@
+package no.kristiania.http;
+
+import java.io.IOException;
+import java.net.Socket;
+
+// GET /admin/metrics for Prometheus to scrape
+public class MetricsController implements HttpController {
+    private final RequestMetrics metrics;
+    private final AccessLog accessLog;
+
+    public MetricsController(RequestMetrics metrics) {
+        this(metrics, null);
+    }
+
+    public MetricsController(RequestMetrics metrics, AccessLog accessLog) {
+        this.metrics = metrics;
+        this.accessLog = accessLog;
+    }
+
+    @Override
+    public void handle(HttpMessage request, Socket clientSocket) throws IOException {
+        HttpMessage response = new HttpMessage(getBody());
+        response.getHeaders().put("Content-Type", "text/plain; version=0.0.4");
+        response.write(clientSocket);
+    }
+
+    public String getBody() {
+        return accessLog != null ? metrics.toPrometheus() + accessLog.toPrometheus() : metrics.toPrometheus();
+    }
+}
@@ -0,0 +1,329 @@
+package no.kristiania.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+// Serves connections from a few selector threads instead of one thread per connection.
+// Idle and slow clients only cost a registered channel. Controllers still run on the worker executor,
+// since they block on the database
+public class NioServerEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(NioServerEngine.class);
+
+    private static final long IDLE_CHECK_INTERVAL = 1000;
+
+    private static final byte[] SERVICE_UNAVAILABLE = ("HTTP/1.1 503 Service Unavailable\r\n" +
+            "Content-Length: 0\r\n" +
+            "Connection: close\r\n" +
+            "\r\n").getBytes();
+
+    private final ServerSocketChannel serverChannel;
+    private final ServerConfig config;
+    private final Executor executor;
+    private final HttpController handler;
+    private final EventLoop[] eventLoops;
+    private int nextEventLoop;
+
+    public NioServerEngine(ServerSocketChannel serverChannel, ServerConfig config, Executor executor, HttpController handler) throws IOException {
+        this.serverChannel = serverChannel;
+        this.config = config;
+        this.executor = executor;
+        this.handler = handler;
+        eventLoops = new EventLoop[config.getEventLoops()];
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop();
+        }
+    }
+
+    public void start() throws IOException {
+        serverChannel.configureBlocking(false);
+        // The first event loop accepts connections and spreads them over all the loops
+        serverChannel.register(eventLoops[0].selector, SelectionKey.OP_ACCEPT);
+        for (int i = 0; i < eventLoops.length; i++) {
+            new Thread(eventLoops[i], "nio-loop-" + i).start();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            EventLoop eventLoop = eventLoops[nextEventLoop++ % eventLoops.length];
+            SocketChannel acceptedChannel = channel;
+            eventLoop.execute(() -> eventLoop.register(acceptedChannel));
+        }
+    }
+
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // The parser copies what it needs, so one read buffer can be shared by every connection on this loop
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(16 * 1024);
+        private long lastIdleCheck = System.currentTimeMillis();
+
+        EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        // Runs the task on the event loop thread
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(SocketChannel channel) {
+            try {
+                Connection connection = new Connection(this, channel);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            } catch (IOException e) {
+                logger.warn("Failed to register connection", e);
+                closeQuietly(channel);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select(IDLE_CHECK_INTERVAL);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handleKey(key);
+                    }
+                    closeIdleConnections();
+                } catch (IOException e) {
+                    logger.warn("Event loop failed", e);
+                }
+            }
+        }
+
+        private void closeIdleConnections() {
+            long now = System.currentTimeMillis();
+            if (now - lastIdleCheck < IDLE_CHECK_INTERVAL) {
+                return;
+            }
+            lastIdleCheck = now;
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    Connection connection = (Connection) key.attachment();
+                    if (!connection.busy && now - connection.lastActivity > config.getKeepAliveTimeout()) {
+                        connection.close();
+                    }
+                }
+            }
+        }
+
+        private void handleKey(SelectionKey key) throws IOException {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isAcceptable()) {
+                accept();
+                return;
+            }
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isReadable()) {
+                    connection.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.write();
+                }
+            } catch (IOException e) {
+                connection.close();
+            }
+        }
+    }
+
+    private class Connection {
+        private final EventLoop eventLoop;
+        private final SocketChannel channel;
+        private final HttpMessageParser parser;
+        // ByteBuffers and FileRegions waiting to be written
+        private final Queue<Object> output = new ArrayDeque<>();
+        private SelectionKey key;
+        private boolean closeAfterWrite;
+        // Bytes of pipelined requests that arrived while we were busy with an earlier request
+        private ByteBuffer pending;
+        private int requestCount;
+        private boolean busy;
+        private long lastActivity = System.currentTimeMillis();
+
+        Connection(EventLoop eventLoop, SocketChannel channel) {
+            this.eventLoop = eventLoop;
+            this.channel = channel;
+            parser = config.createParser();
+        }
+
+        void read() throws IOException {
+            ByteBuffer buffer = eventLoop.readBuffer;
+            buffer.clear();
+            if (channel.read(buffer) == -1) {
+                close();
+                return;
+            }
+            lastActivity = System.currentTimeMillis();
+            buffer.flip();
+            parse(buffer);
+        }
+
+        private void parse(ByteBuffer buffer) throws IOException {
+            HttpMessage request;
+            try {
+                request = parser.parse(buffer);
+            } catch (HttpParseException e) {
+                busy = true;
+                closeAfterWrite = true;
+                respond((e.getStatusLine() + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes());
+                return;
+            }
+            if (request == null) {
+                return;
+            }
+            if (buffer.hasRemaining()) {
+                // The shared read buffer is reused by the next read, so keep the rest for later
+                pending = ByteBuffer.allocate(buffer.remaining()).put(buffer).flip();
+            }
+            // Stop reading until the response has been written, so responses go out in the same order as the requests
+            key.interestOps(0);
+            busy = true;
+            requestCount++;
+            closeAfterWrite = !request.isKeepAlive() || requestCount >= config.getMaxKeepAliveRequests();
+            request.setCloseConnection(closeAfterWrite);
+            dispatch(request);
+        }
+
+        private void dispatch(HttpMessage request) {
+            try {
+                executor.execute(() -> {
+                    ChannelSocket socket = new ChannelSocket(remoteAddress());
+                    boolean failed = false;
+                    try {
+                        handler.handle(request, socket);
+                    } catch (Exception e) {
+                        logger.warn("Request failed", e);
+                        failed = true;
+                    }
+                    // A failed controller may have written half a response, so the connection can't be reused.
+                    // The response may also have said Connection: close
+                    boolean closeConnection = failed || request.isCloseConnection();
+                    eventLoop.execute(() -> {
+                        closeAfterWrite |= closeConnection;
+                        respond(socket.getSegments());
+                    });
+                });
+            } catch (RejectedExecutionException e) {
+                closeAfterWrite = true;
+                respond(SERVICE_UNAVAILABLE);
+            }
+        }
+
+        private InetSocketAddress remoteAddress() {
+            try {
+                return (InetSocketAddress) channel.getRemoteAddress();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        void respond(byte[] response) {
+            respond(List.of(ByteBuffer.wrap(response)));
+        }
+
+        void respond(List<Object> segments) {
+            if (!key.isValid()) {
+                closeFileRegions(segments);
+                return;
+            }
+            output.addAll(segments);
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+
+        void write() throws IOException {
+            while (!output.isEmpty()) {
+                if (output.peek() instanceof FileRegion) {
+                    if (!((FileRegion) output.peek()).transferTo(channel)) {
+                        // The socket buffer is full - wait for the next OP_WRITE
+                        return;
+                    }
+                    output.poll();
+                    continue;
+                }
+                // The buffers up to the next file go out in one gathering write
+                List<ByteBuffer> buffers = new ArrayList<>();
+                for (Object segment : output) {
+                    if (!(segment instanceof ByteBuffer)) {
+                        break;
+                    }
+                    buffers.add((ByteBuffer) segment);
+                }
+                channel.write(buffers.toArray(new ByteBuffer[0]));
+                while (output.peek() instanceof ByteBuffer && !((ByteBuffer) output.peek()).hasRemaining()) {
+                    output.poll();
+                }
+                if (output.peek() instanceof ByteBuffer) {
+                    return;
+                }
+            }
+            if (closeAfterWrite) {
+                close();
+                return;
+            }
+            busy = false;
+            lastActivity = System.currentTimeMillis();
+            key.interestOps(SelectionKey.OP_READ);
+            if (pending != null) {
+                ByteBuffer pipelined = pending;
+                pending = null;
+                parse(pipelined);
+            }
+        }
+
+        void close() {
+            key.cancel();
+            closeQuietly(channel);
+            closeFileRegions(output);
+            output.clear();
+        }
+    }
+
+    private static void closeFileRegions(Collection<Object> segments) {
+        for (Object segment : segments) {
+            if (segment instanceof FileRegion) {
+                ((FileRegion) segment).close();
+            }
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package no.kristiania.http;
+
+import java.util.List;
+
+// Keyset pagination: ?after=<last id the client has>&limit=N. Unlike OFFSET the database jumps straight
+// to the first id of the page with the primary key index, so page 1000 is as fast as page 1
+public class PageRequest {
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 500;
+
+    private final int after;
+    private final int limit;
+
+    public PageRequest(int after, int limit) {
+        this.after = after;
+        this.limit = limit;
+    }
+
+    // Returns null if the request doesn't ask for a page. Throws IllegalArgumentException for bad values
+    public static PageRequest fromRequest(HttpMessage request) {
+        String query = HttpExchange.getQuery(request);
+        if (query == null) {
+            return null;
+        }
+        QueryString queryString = new QueryString(query);
+        String after = queryString.getParameter("after");
+        String limit = queryString.getParameter("limit");
+        if (after == null && limit == null) {
+            return null;
+        }
+        int afterId = after != null && !after.isEmpty() ? Integer.parseInt(after) : 0;
+        int pageSize = limit != null && !limit.isEmpty() ? Integer.parseInt(limit) : DEFAULT_LIMIT;
+        if (pageSize < 1 || pageSize > MAX_LIMIT) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+        }
+        return new PageRequest(afterId, pageSize);
+    }
+
+    public int getAfter() {
+        return after;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    // The DAO is asked for one row more than the page, so we know if there is a next page without counting
+    public int getFetchSize() {
+        return limit + 1;
+    }
+
+    public <T> List<T> page(List<T> rows) {
+        return rows.size() > limit ? rows.subList(0, limit) : rows;
+    }
+
+    public boolean hasNext(List<?> rows) {
+        return rows.size() > limit;
+    }
+
+    public String nextLink(String path, int lastId) {
+        return "<" + path + "?after=" + lastId + "&limit=" + limit + ">; rel=\"next\"";
+    }
+}
@@ -0,0 +1,38 @@
+package no.kristiania.http;
+
+import no.kristiania.database.PooledDataSource;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Locale;
+
+public class PoolStatsController implements HttpController {
+    private final PooledDataSource pool;
+
+    public PoolStatsController(PooledDataSource pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void handle(HttpMessage request, Socket clientSocket) throws IOException {
+        HttpMessage response = new HttpMessage(getBody());
+        response.getHeaders().put("Content-Type", "text/plain");
+        response.write(clientSocket);
+    }
+
+    public String getBody() {
+        return "active " + pool.getActive() + "\n" +
+                "idle " + pool.getIdle() + "\n" +
+                "total " + pool.getTotal() + "\n" +
+                "max " + pool.getMaxSize() + "\n" +
+                "acquired " + pool.getAcquired() + "\n" +
+                "average_wait_ms " + String.format(Locale.ROOT, "%.3f", pool.getAverageWaitMillis()) + "\n" +
+                "max_wait_ms " + String.format(Locale.ROOT, "%.3f", pool.getMaxWaitMillis()) + "\n" +
+                "timeouts " + pool.getTimeouts() + "\n" +
+                "created " + pool.getCreated() + "\n" +
+                "evicted " + pool.getEvicted() + "\n" +
+                "invalid " + pool.getInvalid() + "\n" +
+                "statement_cache_hits " + pool.getStatementHits() + "\n" +
+                "statement_cache_misses " + pool.getStatementMisses() + "\n";
+    }
+}
@@ -0,0 +1,266 @@
+package no.kristiania.http;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+// A client that keeps connections open (keep-alive) and reuses them for the next request to the same host,
+// instead of connecting for every request. Create one and share it - it is thread safe. Each request has
+// a connection to itself while it is sent and answered, so concurrent requests use one connection each.
+// sendAsync instead sends all requests to a host on one connection, without waiting for the responses in between
+public class PooledHttpClient implements Closeable {
+
+    private static final PooledHttpClient defaultClient = new PooledHttpClient();
+
+    private int connectTimeout = 5000;
+    private int readTimeout = 30_000;
+    // Connections are not kept longer than this, so they are closed by us before the server times them out
+    private long idleTimeout = 4000;
+    private int maxIdlePerHost = 8;
+    // For send and sendAsync, which keep the whole body in memory
+    private int maxResponseSize = 64 * 1024 * 1024;
+    // For sendAsync: requests sent to a host and not answered yet. The rest wait until a response comes back
+    private int maxInFlightPerHost = 16;
+
+    // "hostname:port" -> idle connections, the most recently used first
+    private final Map<String, Deque<Connection>> idleConnections = new ConcurrentHashMap<>();
+    // "hostname:port" -> the pipelined connection for sendAsync
+    private final Map<String, HttpPipeline> pipelines = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    // The client used by the HttpClient constructors
+    public static PooledHttpClient getDefault() {
+        return defaultClient;
+    }
+
+    public HttpClientResponse send(HttpClientRequest request) throws IOException {
+        try (HttpClientStreamingResponse response = sendStreaming(request)) {
+            return new HttpClientResponse(response.getStatusLine(), response.getHeaders(), response.readBody(maxResponseSize));
+        }
+    }
+
+    // Returns when the head of the response has arrived. The body is read from the connection as it is consumed,
+    // so it doesn't have to fit in memory, and maxResponseSize doesn't apply
+    public HttpClientStreamingResponse sendStreaming(HttpClientRequest request) throws IOException {
+        byte[] requestBytes = request.toBytes();
+        // The server may have closed an idle connection just as we used it. Then the request is sent again on
+        // another connection - but only once, so a server that fails every request doesn't get it many times
+        boolean retried = false;
+        while (true) {
+            Connection connection = checkOut(request.getHostname(), request.getPort());
+            boolean canRetry = !retried && connection.requests > 0;
+            HttpMessage head;
+            try {
+                connection.socket.getOutputStream().write(requestBytes);
+                head = connection.reader.readHead();
+            } catch (SocketTimeoutException | HttpParseException e) {
+                connection.close();
+                throw e;
+            } catch (IOException e) {
+                connection.close();
+                // Like a reset: we don't know if the server got the request, so only a request that can be
+                // done twice is sent again
+                if (!canRetry || !HttpPipeline.isIdempotent(request)) {
+                    throw e;
+                }
+                retried = true;
+                continue;
+            }
+            if (head == null) {
+                connection.close();
+                // Closed before any of the response came back: the server closed the idle connection
+                // without handling the request, so even a POST can be sent again
+                if (!canRetry) {
+                    throw new EOFException("Connection closed before a response was received");
+                }
+                retried = true;
+                continue;
+            }
+            connection.requests++;
+            HttpClientStreamingResponse response;
+            try {
+                HttpBodyInputStream body = HttpBodyInputStream.forResponse(connection.reader.getInput(), request.getMethod(), head);
+                response = new HttpClientStreamingResponse(head, body);
+                boolean keepAlive = isKeepAlive(head) && !HttpBodyInputStream.readsUntilClose(request.getMethod(), head);
+                // The connection can only be used again if the whole body was read, else the rest of it
+                // would be read as the next response
+                body.setOnClose(finished -> {
+                    if (finished && keepAlive) {
+                        checkIn(connection);
+                    } else {
+                        connection.close();
+                    }
+                });
+            } catch (HttpParseException e) {
+                connection.close();
+                throw e;
+            }
+            return response;
+        }
+    }
+
+    // Sends the request without waiting for the answers to the requests before it, on a connection of its own for
+    // each host (see HttpPipeline). So N requests to a host take about one round trip instead of N.
+    // The future fails with an IOException if the request could not be sent or answered
+    public CompletableFuture<HttpClientResponse> sendAsync(HttpClientRequest request) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IOException("Client is closed"));
+        }
+        return pipelines.computeIfAbsent(request.getHostname() + ":" + request.getPort(),
+                host -> new HttpPipeline(this, request.getHostname(), request.getPort())).submit(request);
+    }
+
+    public HttpClientResponse send(String hostname, int port, String method, String target, String body) throws IOException {
+        HttpClientRequest request = new HttpClientRequest(hostname, port, method, target);
+        request.setBody(body);
+        return send(request);
+    }
+
+    private Connection checkOut(String hostname, int port) throws IOException {
+        if (closed) {
+            throw new IOException("Client is closed");
+        }
+        Deque<Connection> idle = idleConnections.get(hostname + ":" + port);
+        Connection connection;
+        while (idle != null && (connection = idle.pollFirst()) != null) {
+            if (System.currentTimeMillis() - connection.lastUsed < idleTimeout && !connection.socket.isClosed()) {
+                return connection;
+            }
+            connection.close();
+        }
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(hostname, port), connectTimeout);
+            socket.setSoTimeout(readTimeout);
+            // The request goes out in one write, so there is nothing to gain from Nagle's algorithm
+            socket.setTcpNoDelay(true);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return new Connection(hostname + ":" + port, socket);
+    }
+
+    private void checkIn(Connection connection) {
+        Deque<Connection> idle = idleConnections.computeIfAbsent(connection.host, host -> new ConcurrentLinkedDeque<>());
+        if (closed || idle.size() >= maxIdlePerHost) {
+            connection.close();
+            return;
+        }
+        connection.lastUsed = System.currentTimeMillis();
+        idle.offerFirst(connection);
+    }
+
+    // HTTP/1.1 connections stay open unless the server says close, HTTP/1.0 connections only if it says keep-alive
+    static boolean isKeepAlive(HttpMessage response) {
+        String connection = response.getHeaders().get("Connection");
+        if (response.getStartLine().startsWith("HTTP/1.0")) {
+            return "keep-alive".equalsIgnoreCase(connection);
+        }
+        return !"close".equalsIgnoreCase(connection);
+    }
+
+    // The number of connections that are open and not in use
+    public int getIdleConnections() {
+        int count = 0;
+        for (Deque<Connection> idle : idleConnections.values()) {
+            count += idle.size();
+        }
+        return count;
+    }
+
+    // Closes the idle connections. Requests that are being sent finish, and then close their connection
+    @Override
+    public void close() {
+        closed = true;
+        for (HttpPipeline pipeline : pipelines.values()) {
+            pipeline.close();
+        }
+        for (Deque<Connection> idle : idleConnections.values()) {
+            Connection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                connection.close();
+            }
+        }
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public int getMaxIdlePerHost() {
+        return maxIdlePerHost;
+    }
+
+    public void setMaxIdlePerHost(int maxIdlePerHost) {
+        this.maxIdlePerHost = maxIdlePerHost;
+    }
+
+    public int getMaxInFlightPerHost() {
+        return maxInFlightPerHost;
+    }
+
+    public void setMaxInFlightPerHost(int maxInFlightPerHost) {
+        this.maxInFlightPerHost = maxInFlightPerHost;
+    }
+
+    public int getMaxResponseSize() {
+        return maxResponseSize;
+    }
+
+    public void setMaxResponseSize(int maxResponseSize) {
+        this.maxResponseSize = maxResponseSize;
+    }
+
+    private static class Connection {
+        private final String host;
+        private final Socket socket;
+        // One reader for the life of the connection: it may have read the start of the next response already
+        private final HttpMessageReader reader;
+        private long lastUsed;
+        private int requests;
+
+        Connection(String host, Socket socket) throws IOException {
+            this.host = host;
+            this.socket = socket;
+            // Only reads the heads. The bodies are read by HttpBodyInputStream
+            this.reader = new HttpMessageReader(socket.getInputStream());
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Nothing more to do with it
+            }
+        }
+    }
+}
@@ -1,10 +1,14 @@
 package no.kristiania.http;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class QueryString {
     private final Map<String, String> parameters = new LinkedHashMap<>();
+    // A parameter may be given more than once, like workerId=1&workerId=2 from a <select multiple>
+    private final Map<String, List<String>> allValues = new LinkedHashMap<>();
 
     public QueryString(String queryString) {
         for (String parameter : queryString.split("&")) {
@@ -12,6 +16,7 @@ public class QueryString {
             String key = parameter.substring(0, equalsPos);
             String value = parameter.substring(equalsPos+1);
             this.parameters.put(key, value);
+            allValues.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
         }
     }
 
@@ -19,6 +24,11 @@ public class QueryString {
         return parameters.get(key);
     }
 
+    // All the values of the parameter, in order. getParameter returns the last of them
+    public List<String> getParameterValues(String key) {
+        return allValues.getOrDefault(key, List.of());
+    }
+
     public String getQueryString() {
         StringBuilder result = new StringBuilder();
         for (Map.Entry<String, String> parameter : parameters.entrySet()) {
@@ -35,5 +45,6 @@ public class QueryString {
 
     public void addParameter(String key, String value) {
         parameters.put(key, value);
+        allValues.put(key, new ArrayList<>(List.of(value)));
     }
 }
@@ -0,0 +1,55 @@
+package no.kristiania.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RequestExecutors {
+
+    private static final Logger logger = LoggerFactory.getLogger(RequestExecutors.class);
+
+    public static Executor create(ServerConfig config) {
+        switch (config.getExecutor()) {
+            case "inline":
+                return Runnable::run;
+            case "virtual":
+                ExecutorService virtualThreads = virtualThreadExecutor();
+                if (virtualThreads != null) {
+                    return virtualThreads;
+                }
+                logger.warn("Virtual threads are not supported on Java {}, using thread pool", Runtime.version());
+                return threadPool(config);
+            case "pool":
+                return threadPool(config);
+            default:
+                throw new IllegalArgumentException("Unknown server.executor " + config.getExecutor());
+        }
+    }
+
+    static ThreadPoolExecutor threadPool(ServerConfig config) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        // A bounded queue means that a burst of connections is rejected instead of piling up without limit
+        return new ThreadPoolExecutor(
+                config.getWorkerThreads(), config.getWorkerThreads(),
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(config.getWorkerQueueSize()),
+                runnable -> new Thread(runnable, "http-worker-" + threadNumber.incrementAndGet())
+        );
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() only exists from Java 21, so we look it up at runtime
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
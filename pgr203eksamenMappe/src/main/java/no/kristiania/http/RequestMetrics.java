@@ -0,0 +1,118 @@
+package no.kristiania.http;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Requests by route and status code, and how long they took, in total and for each stage: parse (from the first
+// byte of the request until it was complete), handle (the controller, without writing) and write.
+// Routes are the patterns from the Router ("/api/workers/{id}"), so the number of series doesn't grow with the ids
+public class RequestMetrics {
+
+    // Static files are one route, so every file doesn't get its own series
+    public static final String STATIC_ROUTE = "static";
+    public static final String UNMATCHED_ROUTE = "unmatched";
+
+    // Seconds. Prometheus' default buckets, with finer steps below 5 ms
+    private static final double[] BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] STAGES = {"parse", "handle", "write"};
+
+    private final Map<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+
+    public void record(String route, int status, long parseNanos, long handleNanos, long writeNanos) {
+        RouteMetrics metrics = routes.get(route);
+        if (metrics == null) {
+            metrics = routes.computeIfAbsent(route, r -> new RouteMetrics());
+        }
+        if (status >= 100 && status < 600) {
+            metrics.statuses.incrementAndGet(status);
+        }
+        metrics.total.record((parseNanos + handleNanos + writeNanos) / 1000);
+        metrics.stages[0].record(parseNanos / 1000);
+        metrics.stages[1].record(handleNanos / 1000);
+        metrics.stages[2].record(writeNanos / 1000);
+    }
+
+    // Returns null if the route has not had any requests
+    public LatencyHistogram getLatency(String route) {
+        RouteMetrics metrics = routes.get(route);
+        return metrics != null ? metrics.total : null;
+    }
+
+    public long getCount(String route, int status) {
+        RouteMetrics metrics = routes.get(route);
+        return metrics != null ? metrics.statuses.get(status) : 0;
+    }
+
+    // The Prometheus text format, see https://prometheus.io/docs/instrumenting/exposition_formats/
+    public String toPrometheus() {
+        Map<String, RouteMetrics> sorted = new TreeMap<>(routes);
+        StringBuilder result = new StringBuilder();
+
+        result.append("# HELP http_requests_total Requests by route and status code\n");
+        result.append("# TYPE http_requests_total counter\n");
+        for (Map.Entry<String, RouteMetrics> route : sorted.entrySet()) {
+            for (int status = 100; status < 600; status++) {
+                long count = route.getValue().statuses.get(status);
+                if (count > 0) {
+                    result.append("http_requests_total{route=\"").append(escape(route.getKey()))
+                            .append("\",status=\"").append(status).append("\"} ").append(count).append('\n');
+                }
+            }
+        }
+
+        result.append("# HELP http_request_duration_seconds Time from the first byte of the request until the response was written\n");
+        result.append("# TYPE http_request_duration_seconds histogram\n");
+        for (Map.Entry<String, RouteMetrics> route : sorted.entrySet()) {
+            appendHistogram(result, "http_request_duration_seconds", "route=\"" + escape(route.getKey()) + "\"", route.getValue().total);
+        }
+
+        result.append("# HELP http_request_duration_quantile_seconds Percentiles of http_request_duration_seconds, within 6%\n");
+        result.append("# TYPE http_request_duration_quantile_seconds gauge\n");
+        for (Map.Entry<String, RouteMetrics> route : sorted.entrySet()) {
+            for (double quantile : QUANTILES) {
+                result.append("http_request_duration_quantile_seconds{route=\"").append(escape(route.getKey()))
+                        .append("\",quantile=\"").append(quantile).append("\"} ")
+                        .append(seconds(route.getValue().total.percentile(quantile))).append('\n');
+            }
+        }
+
+        result.append("# HELP http_request_stage_duration_seconds Time spent in each stage of a request: parse, handle and write\n");
+        result.append("# TYPE http_request_stage_duration_seconds histogram\n");
+        for (Map.Entry<String, RouteMetrics> route : sorted.entrySet()) {
+            for (int i = 0; i < STAGES.length; i++) {
+                String labels = "route=\"" + escape(route.getKey()) + "\",stage=\"" + STAGES[i] + "\"";
+                appendHistogram(result, "http_request_stage_duration_seconds", labels, route.getValue().stages[i]);
+            }
+        }
+        return result.toString();
+    }
+
+    private static void appendHistogram(StringBuilder result, String name, String labels, LatencyHistogram histogram) {
+        for (double bucket : BUCKETS) {
+            result.append(name).append("_bucket{").append(labels).append(",le=\"").append(bucket).append("\"} ")
+                    .append(histogram.countAtOrBelow((long) (bucket * 1_000_000))).append('\n');
+        }
+        long count = histogram.getCount();
+        result.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(count).append('\n');
+        result.append(name).append("_sum{").append(labels).append("} ").append(seconds(histogram.getSum())).append('\n');
+        result.append(name).append("_count{").append(labels).append("} ").append(count).append('\n');
+    }
+
+    private static String seconds(long micros) {
+        return String.valueOf(micros / 1_000_000.0);
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static class RouteMetrics {
+        // Indexed by status code
+        private final AtomicLongArray statuses = new AtomicLongArray(600);
+        private final LatencyHistogram total = new LatencyHistogram();
+        private final LatencyHistogram[] stages = {new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram()};
+    }
+}
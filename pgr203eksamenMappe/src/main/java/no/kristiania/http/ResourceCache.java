@@ -0,0 +1,220 @@
+package no.kristiania.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+// Loads static files once and keeps them in memory together with their ETag.
+// In dev mode files are read from a content directory, which is watched so edited files are reloaded
+public class ResourceCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResourceCache.class);
+
+    private static final Map<String, String> CONTENT_TYPES = Map.ofEntries(
+            Map.entry("html", "text/html"),
+            Map.entry("htm", "text/html"),
+            Map.entry("css", "text/css"),
+            Map.entry("js", "application/javascript"),
+            Map.entry("json", "application/json"),
+            Map.entry("txt", "text/plain"),
+            Map.entry("ico", "image/x-icon"),
+            Map.entry("png", "image/png"),
+            Map.entry("jpg", "image/jpeg"),
+            Map.entry("jpeg", "image/jpeg"),
+            Map.entry("gif", "image/gif"),
+            Map.entry("svg", "image/svg+xml"),
+            Map.entry("pdf", "application/pdf")
+    );
+
+    private final Map<String, Resource> resources = new ConcurrentHashMap<>();
+    private final Path devContentDirectory;
+
+    public ResourceCache() {
+        this(null);
+    }
+
+    public ResourceCache(Path devContentDirectory) {
+        this.devContentDirectory = devContentDirectory != null ? devContentDirectory.toAbsolutePath().normalize() : null;
+        if (this.devContentDirectory != null) {
+            watch(this.devContentDirectory);
+        }
+    }
+
+    // Returns null if there is no such resource. Misses are not cached, or random URLs would fill the cache
+    public Resource get(String path) throws IOException {
+        Resource resource = resources.get(path);
+        if (resource == null) {
+            byte[] content = load(path);
+            if (content == null) {
+                return null;
+            }
+            resource = new Resource(content, etag(content), contentType(path));
+            resources.put(path, resource);
+        }
+        return resource;
+    }
+
+    public void invalidate(String path) {
+        resources.remove(path);
+    }
+
+    private byte[] load(String path) throws IOException {
+        if (devContentDirectory != null) {
+            Path file = devContentDirectory.resolve(path.substring(1)).normalize();
+            if (file.startsWith(devContentDirectory) && Files.isRegularFile(file)) {
+                return Files.readAllBytes(file);
+            }
+        }
+        try (InputStream inputStream = getClass().getResourceAsStream(path)) {
+            return inputStream != null ? inputStream.readAllBytes() : null;
+        }
+    }
+
+    public static String contentType(String path) {
+        int dotPos = path.lastIndexOf('.');
+        String extension = dotPos != -1 ? path.substring(dotPos + 1).toLowerCase() : "";
+        return CONTENT_TYPES.getOrDefault(extension, "text/plain");
+    }
+
+    // If-None-Match can be "*" or a list of (possibly weak) ETags. For If-None-Match a weak ETag matches
+    // the strong one with the same value
+    static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A strong ETag: a hash of the exact bytes we send
+    static String etag(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder etag = new StringBuilder("\"");
+            for (int i = 0; i < 16; i++) {
+                etag.append(String.format("%02x", digest[i]));
+            }
+            return etag.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void watch(Path directory) {
+        WatchService watchService;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            try (Stream<Path> directories = Files.walk(directory)) {
+                for (Path dir : (Iterable<Path>) directories.filter(Files::isDirectory)::iterator) {
+                    dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Can't watch {} for changes", directory, e);
+            return;
+        }
+        logger.info("Serving and watching static files from {}", directory);
+
+        Thread watcher = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watchService.take();
+                    Path dir = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.context() instanceof Path) {
+                            Path changed = dir.resolve((Path) event.context());
+                            String path = "/" + directory.relativize(changed).toString().replace('\\', '/');
+                            logger.debug("{} changed", path);
+                            invalidate(path);
+                        }
+                    }
+                    key.reset();
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // stop watching
+            }
+        }, "resource-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    public static class Resource {
+        private final byte[] content;
+        private final String etag;
+        private final String contentType;
+        // Compressed once, the first time a client asks for it
+        private final Map<String, byte[]> encodedContent = new ConcurrentHashMap<>();
+
+        Resource(byte[] content, String etag, String contentType) {
+            this.content = content;
+            this.etag = etag;
+            this.contentType = contentType;
+        }
+
+        // Shared between all requests - must not be modified
+        public byte[] getContent() {
+            return content;
+        }
+
+        // Shared between all requests - must not be modified
+        public byte[] getContent(String encoding) throws IOException {
+            if (encoding == null) {
+                return content;
+            }
+            byte[] encoded = encodedContent.get(encoding);
+            if (encoded == null) {
+                encoded = ResponseCompressor.compress(content, encoding);
+                encodedContent.put(encoding, encoded);
+            }
+            return encoded;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        // The compressed bytes are a different representation, so they need their own ETag
+        public String getEtag(String encoding) {
+            if (encoding == null) {
+                return etag;
+            }
+            return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public boolean matches(String ifNoneMatch) {
+            return matches(ifNoneMatch, null);
+        }
+
+        public boolean matches(String ifNoneMatch, String encoding) {
+            return etagMatches(ifNoneMatch, getEtag(encoding));
+        }
+    }
+}
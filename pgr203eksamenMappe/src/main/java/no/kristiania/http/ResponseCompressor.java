@@ -0,0 +1,193 @@
+package no.kristiania.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Compresses response bodies with gzip or deflate when the client accepts it (Accept-Encoding),
+// and keeps count of how many bytes that saved for each route
+public class ResponseCompressor {
+
+    private final boolean enabled;
+    private final int minSize;
+    private final Map<String, RouteSavings> savings = new ConcurrentHashMap<>();
+
+    public ResponseCompressor(boolean enabled, int minSize) {
+        this.enabled = enabled;
+        this.minSize = minSize;
+    }
+
+    // Picks the encoding the client prefers, like "gzip;q=1.0, deflate;q=0.5". Returns null for no compression
+    public String negotiate(String acceptEncoding) {
+        if (!enabled || acceptEncoding == null) {
+            return null;
+        }
+        String best = null;
+        double bestQuality = 0;
+        double anyQuality = 0;
+        boolean gzipListed = false;
+        boolean deflateListed = false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] parameters = part.trim().split(";");
+            String coding = parameters[0].trim().toLowerCase();
+            double quality = 1;
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (coding.equals("*")) {
+                anyQuality = quality;
+                continue;
+            }
+            gzipListed |= coding.equals("gzip");
+            deflateListed |= coding.equals("deflate");
+            if ((coding.equals("gzip") || coding.equals("deflate")) && quality > bestQuality) {
+                best = coding;
+                bestQuality = quality;
+            }
+        }
+        // "*" is every coding that is not listed, so "gzip;q=0, *" means anything but gzip
+        if (anyQuality > bestQuality && (!gzipListed || !deflateListed)) {
+            best = gzipListed ? "deflate" : "gzip";
+        }
+        return best;
+    }
+
+    // Our controllers send HTML fragments without a Content-Type, so a missing type counts as text
+    public static boolean isCompressible(String contentType) {
+        return contentType == null
+                || contentType.startsWith("text/")
+                || contentType.startsWith("application/javascript")
+                || contentType.startsWith("application/json")
+                || contentType.startsWith("image/svg+xml");
+    }
+
+    // The encoding to use for a body of this type and size, or null if it should be sent as it is.
+    // Small bodies fit in a packet anyway, so compressing them only costs CPU
+    public String chooseEncoding(HttpMessage request, String contentType, long length) {
+        if (length == 0 || length < minSize || !isCompressible(contentType)) {
+            return null;
+        }
+        return negotiate(request.getHeaders().get("Accept-Encoding"));
+    }
+
+    // Compresses the body if the current request accepts it and it is worth it. Adds the headers that go with it
+    byte[] compressResponse(HttpExchange exchange, Map<String, String> headers, byte[] content) throws IOException {
+        if (content == null || headers.containsKey("Content-Encoding")) {
+            return content;
+        }
+        String encoding = chooseEncoding(exchange.getRequest(), headers.get("Content-Type"), content.length);
+        if (encoding == null) {
+            return content;
+        }
+        byte[] compressed = compress(content, encoding);
+        headers.put("Content-Encoding", encoding);
+        headers.put("Vary", "Accept-Encoding");
+        record(exchange.getPath(), content.length, compressed.length);
+        return compressed;
+    }
+
+    // For a streamed body, where the length isn't known up front. Adds the headers and returns the encoding, or null
+    String startStream(HttpExchange exchange, Map<String, String> headers) {
+        if (headers.containsKey("Content-Encoding")) {
+            return null;
+        }
+        String encoding = chooseEncoding(exchange.getRequest(), headers.get("Content-Type"), Long.MAX_VALUE);
+        if (encoding != null) {
+            headers.put("Content-Encoding", encoding);
+            headers.put("Vary", "Accept-Encoding");
+        }
+        return encoding;
+    }
+
+    // Compresses everything written to the returned stream. The savings are counted when it is closed
+    OutputStream compressStream(HttpExchange exchange, String encoding, ChunkedOutputStream output) throws IOException {
+        // A Deflater we pass in is not ended when the stream is closed, so we end it ourselves. Until then it
+        // holds native memory
+        Deflater deflater = encoding.equals("gzip") ? null : new Deflater();
+        OutputStream compressing = deflater == null
+                ? new GZIPOutputStream(output, 8 * 1024)
+                : new DeflaterOutputStream(output, deflater, 8 * 1024);
+        return new FilterOutputStream(compressing) {
+            private long originalBytes;
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                originalBytes++;
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                out.write(bytes, offset, length);
+                originalBytes += length;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (deflater != null) {
+                        deflater.end();
+                    }
+                }
+                record(exchange.getPath(), originalBytes, output.getBytesWritten());
+            }
+        };
+    }
+
+    public static byte[] compress(byte[] content, String encoding) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(content.length / 4 + 64);
+        try (OutputStream output = encoding.equals("gzip") ? new GZIPOutputStream(buffer) : new DeflaterOutputStream(buffer)) {
+            output.write(content);
+        }
+        return buffer.toByteArray();
+    }
+
+    void record(String route, long originalBytes, long compressedBytes) {
+        RouteSavings routeSavings = savings.computeIfAbsent(route, r -> new RouteSavings());
+        routeSavings.responses.increment();
+        routeSavings.originalBytes.add(originalBytes);
+        routeSavings.compressedBytes.add(compressedBytes);
+    }
+
+    public Map<String, RouteSavings> getSavings() {
+        return savings;
+    }
+
+    public static class RouteSavings {
+        private final LongAdder responses = new LongAdder();
+        private final LongAdder originalBytes = new LongAdder();
+        private final LongAdder compressedBytes = new LongAdder();
+
+        public long getResponses() {
+            return responses.sum();
+        }
+
+        public long getOriginalBytes() {
+            return originalBytes.sum();
+        }
+
+        public long getCompressedBytes() {
+            return compressedBytes.sum();
+        }
+
+        public long getSavedBytes() {
+            return getOriginalBytes() - getCompressedBytes();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package no.kristiania.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Encodes a whole response into one buffer so it goes out with a single write, instead of one write
+// for the status line, each header and the body. Content-Length is always the number of encoded body bytes
+public class ResponseWriter {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final BlockingQueue<byte[]> bufferPool = new ArrayBlockingQueue<>(64);
+
+    private static final byte[] CRLF = ascii("\r\n");
+    private static final byte[] HEADER_SEPARATOR = ascii(": ");
+    private static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+    private static final byte[] CONNECTION = ascii("Connection: ");
+
+    // The status lines and headers we send all the time are encoded once
+    private static final Map<String, byte[]> STATUS_LINES = Map.of(
+            "HTTP/1.1 200 OK", ascii("HTTP/1.1 200 OK\r\n"),
+            "HTTP/1.1 206 Partial Content", ascii("HTTP/1.1 206 Partial Content\r\n"),
+            "HTTP/1.1 302 Redirect", ascii("HTTP/1.1 302 Redirect\r\n"),
+            "HTTP/1.1 304 Not Modified", ascii("HTTP/1.1 304 Not Modified\r\n"),
+            "HTTP/1.1 404 Not Found", ascii("HTTP/1.1 404 Not Found\r\n")
+    );
+    private static final Map<String, byte[]> HEADER_NAMES = Map.of(
+            "Content-Type", ascii("Content-Type: "),
+            "Location", ascii("Location: "),
+            "ETag", ascii("ETag: "),
+            "Cache-Control", ascii("Cache-Control: "),
+            "Connection", ascii("Connection: "),
+            "Content-Encoding", ascii("Content-Encoding: "),
+            "Vary", ascii("Vary: "),
+            "Transfer-Encoding", ascii("Transfer-Encoding: ")
+    );
+    private static final Map<String, byte[]> HEADER_VALUES = Map.of(
+            "text/html", ascii("text/html\r\n"),
+            "text/html; charset=utf-8", ascii("text/html; charset=utf-8\r\n"),
+            "text/plain", ascii("text/plain\r\n"),
+            "text/plain; charset=utf-8", ascii("text/plain; charset=utf-8\r\n"),
+            "close", ascii("close\r\n"),
+            "keep-alive", ascii("keep-alive\r\n"),
+            "no-cache", ascii("no-cache\r\n"),
+            "gzip", ascii("gzip\r\n"),
+            "Accept-Encoding", ascii("Accept-Encoding\r\n"),
+            "chunked", ascii("chunked\r\n")
+    );
+
+    private byte[] buffer;
+    private int position;
+
+    private ResponseWriter(byte[] buffer) {
+        this.buffer = buffer;
+    }
+
+    public static void write(OutputStream outputStream, String startLine, Map<String, String> headers, byte[] body) throws IOException {
+        long started = System.nanoTime();
+        byte[] pooledBuffer = bufferPool.poll();
+        ResponseWriter writer = new ResponseWriter(pooledBuffer != null ? pooledBuffer : new byte[BUFFER_SIZE]);
+        try {
+            writer.writeHead(startLine, headers, body != null ? body.length : 0);
+            if (HttpExchange.isHeadRequest()) {
+                // The Content-Length tells the size of the body a GET would get, but the body is not sent
+                outputStream.write(writer.buffer, 0, writer.position);
+            } else if (body != null && writer.position + body.length <= writer.buffer.length) {
+                writer.put(body);
+                outputStream.write(writer.buffer, 0, writer.position);
+            } else {
+                // Too big to copy - the body goes out in a second write
+                outputStream.write(writer.buffer, 0, writer.position);
+                if (body != null) {
+                    outputStream.write(body);
+                }
+            }
+            HttpExchange.responseWritten(startLine, body != null ? body.length : 0, System.nanoTime() - started);
+        } finally {
+            if (writer.buffer.length == BUFFER_SIZE) {
+                bufferPool.offer(writer.buffer);
+            }
+        }
+    }
+
+    // For responses where the body is sent separately, like a file transfer. Use -1 for a chunked body
+    public static void writeHead(OutputStream outputStream, String startLine, Map<String, String> headers, long contentLength) throws IOException {
+        long started = System.nanoTime();
+        byte[] pooledBuffer = bufferPool.poll();
+        ResponseWriter writer = new ResponseWriter(pooledBuffer != null ? pooledBuffer : new byte[BUFFER_SIZE]);
+        try {
+            writer.writeHead(startLine, headers, contentLength);
+            outputStream.write(writer.buffer, 0, writer.position);
+            // Only the head: the body that follows is written by the caller
+            HttpExchange.responseWritten(startLine, contentLength, System.nanoTime() - started);
+        } finally {
+            if (writer.buffer.length == BUFFER_SIZE) {
+                bufferPool.offer(writer.buffer);
+            }
+        }
+    }
+
+    private void writeHead(String startLine, Map<String, String> headers, long contentLength) {
+        byte[] statusLine = STATUS_LINES.get(startLine);
+        if (statusLine != null) {
+            put(statusLine);
+        } else {
+            putAscii(startLine);
+            put(CRLF);
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase("Content-Length")) {
+                // Calculated from the body below
+                continue;
+            }
+            byte[] name = HEADER_NAMES.get(header.getKey());
+            if (name != null) {
+                put(name);
+            } else {
+                putAscii(header.getKey());
+                put(HEADER_SEPARATOR);
+            }
+            byte[] value = HEADER_VALUES.get(header.getValue());
+            if (value != null) {
+                put(value);
+            } else {
+                putAscii(header.getValue());
+                put(CRLF);
+            }
+        }
+        String connection = HttpExchange.connectionHeader(headers.get("Connection"));
+        if (connection != null) {
+            put(CONNECTION);
+            put(HEADER_VALUES.get(connection));
+        }
+        if (!startLine.startsWith("HTTP/1.1 304") && contentLength >= 0) {
+            // A 304 has no body, and its Content-Length would have to be the length of the cached body.
+            // A negative length means the body is chunked
+            put(CONTENT_LENGTH);
+            putAscii(Long.toString(contentLength));
+            put(CRLF);
+        }
+        put(CRLF);
+    }
+
+    private void put(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    // Header lines are ISO-8859-1, so each char is one byte
+    private void putAscii(String text) {
+        ensureCapacity(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            buffer[position++] = (byte) text.charAt(i);
+        }
+    }
+
+    private void ensureCapacity(int length) {
+        if (position + length > buffer.length) {
+            byte[] larger = new byte[Math.max(buffer.length * 2, position + length)];
+            System.arraycopy(buffer, 0, larger, 0, position);
+            buffer = larger;
+        }
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
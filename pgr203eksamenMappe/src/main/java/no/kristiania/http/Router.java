@@ -0,0 +1,163 @@
+package no.kristiania.http;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Finds the controller for a request. The routes are put in a tree of path segments when the server starts, so a
+// request is routed by walking its path once, comparing each segment in place - the path is not split or copied.
+// A segment like {id} matches any segment, and its position is written to the HttpExchange
+public class Router {
+
+    // HEAD is answered by the GET controller
+    private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE", "PATCH", "OPTIONS"};
+    private static final int GET = 0;
+    static final int MAX_PARAMETERS = 4;
+
+    private final Route root = new Route("");
+
+    public Router add(String method, String pattern, HttpController controller) {
+        int methodIndex = indexOf(method, 0, method.length());
+        if (methodIndex == -1 || !pattern.startsWith("/")) {
+            throw new IllegalArgumentException("Can't route " + method + " " + pattern);
+        }
+        Route route = root;
+        List<String> parameterNames = new ArrayList<>();
+        for (String segment : pattern.substring(1).split("/", -1)) {
+            if (segment.isEmpty() && route == root && pattern.equals("/")) {
+                break;
+            }
+            if (segment.startsWith("{") && segment.endsWith("}")) {
+                parameterNames.add(segment.substring(1, segment.length() - 1));
+                if (route.parameterChild == null) {
+                    route.parameterChild = new Route(segment);
+                }
+                route = route.parameterChild;
+            } else {
+                route = route.staticChild(segment);
+            }
+        }
+        if (parameterNames.size() > MAX_PARAMETERS) {
+            throw new IllegalArgumentException("At most " + MAX_PARAMETERS + " parameters in " + pattern);
+        }
+        if (route.pattern != null && !route.pattern.equals(pattern)) {
+            throw new IllegalArgumentException(pattern + " is the same route as " + route.pattern);
+        }
+        route.pattern = pattern;
+        route.parameterNames = parameterNames.toArray(new String[0]);
+        route.controllers[methodIndex] = controller;
+        return this;
+    }
+
+    // Finds the route for the path in line[start, end). Returns null if there is none.
+    // The start and end of each path parameter are written to parameterBounds
+    Route find(String line, int start, int end, int[] parameterBounds) {
+        if (start >= end || line.charAt(start) != '/') {
+            return null;
+        }
+        if (start + 1 == end) {
+            return root.pattern != null ? root : null;
+        }
+        return find(root, line, start + 1, end, parameterBounds, 0);
+    }
+
+    private Route find(Route route, String line, int start, int end, int[] parameterBounds, int parameterCount) {
+        int segmentEnd = start;
+        while (segmentEnd < end && line.charAt(segmentEnd) != '/') {
+            segmentEnd++;
+        }
+        int length = segmentEnd - start;
+        for (Route child : route.children) {
+            if (child.segment.length() == length && line.regionMatches(start, child.segment, 0, length)) {
+                Route found = segmentEnd == end ? child : find(child, line, segmentEnd + 1, end, parameterBounds, parameterCount);
+                if (found != null && found.pattern != null) {
+                    return found;
+                }
+            }
+        }
+        // Only if no fixed segment matched, so /api/workers/import wins over /api/workers/{id}
+        if (route.parameterChild != null && length > 0) {
+            parameterBounds[parameterCount * 2] = start;
+            parameterBounds[parameterCount * 2 + 1] = segmentEnd;
+            Route found = segmentEnd == end ? route.parameterChild : find(route.parameterChild, line, segmentEnd + 1, end, parameterBounds, parameterCount + 1);
+            if (found != null && found.pattern != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    // The index of the method in line[start, end), or -1 if it isn't one we route
+    static int indexOf(String line, int start, int end) {
+        for (int i = 0; i < METHODS.length; i++) {
+            if (METHODS[i].length() == end - start && line.regionMatches(start, METHODS[i], 0, end - start)) {
+                return i;
+            }
+        }
+        if (end - start == 4 && line.regionMatches(start, "HEAD", 0, 4)) {
+            return GET;
+        }
+        return -1;
+    }
+
+    public static class Route {
+        private final String segment;
+        private Route[] children = new Route[0];
+        private Route parameterChild;
+        private String pattern;
+        private String[] parameterNames;
+        private final HttpController[] controllers = new HttpController[METHODS.length];
+
+        private Route(String segment) {
+            this.segment = segment;
+        }
+
+        private Route staticChild(String segment) {
+            for (Route child : children) {
+                if (child.segment.equals(segment)) {
+                    return child;
+                }
+            }
+            Route child = new Route(segment);
+            children = Arrays.copyOf(children, children.length + 1);
+            children[children.length - 1] = child;
+            return child;
+        }
+
+        // Like "/api/workers/{id}"
+        public String getPattern() {
+            return pattern;
+        }
+
+        // Returns null if the route has no controller for the method (the index from Router.indexOf)
+        HttpController getController(int methodIndex) {
+            return methodIndex != -1 ? controllers[methodIndex] : null;
+        }
+
+        // For the Allow header of a 405 response, like "GET, POST"
+        String getAllowedMethods() {
+            StringBuilder allowed = new StringBuilder();
+            for (int i = 0; i < METHODS.length; i++) {
+                if (controllers[i] != null) {
+                    if (allowed.length() > 0) {
+                        allowed.append(", ");
+                    }
+                    allowed.append(METHODS[i]);
+                    if (i == GET) {
+                        allowed.append(", HEAD");
+                    }
+                }
+            }
+            return allowed.toString();
+        }
+
+        int parameterIndex(String name) {
+            for (int i = 0; i < parameterNames.length; i++) {
+                if (parameterNames[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package no.kristiania.http;
+
+import no.kristiania.database.EntityCache;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+public class ServerConfig {
+
+    // "blocking" (ServerSocket with a thread per request) or "nio" (selector event loops)
+    private String engine = "blocking";
+    private int eventLoops = Runtime.getRuntime().availableProcessors();
+
+    // How requests are executed: "pool" (bounded thread pool), "virtual" (virtual threads) or "inline" (accept thread)
+    private String executor = "pool";
+    private int workerThreads = Runtime.getRuntime().availableProcessors() * 4;
+    private int workerQueueSize = 200;
+
+    // How long a kept-alive connection may be idle, and how many requests it may serve, before it's closed
+    private int keepAliveTimeout = 5000;
+    private int maxKeepAliveRequests = 100;
+
+    // Requests with larger headers or bodies (in bytes) are rejected with 431 and 413
+    private int maxHeaderSize = HttpMessageParser.DEFAULT_MAX_HEADER_SIZE;
+    private int maxBodySize = HttpMessageParser.DEFAULT_MAX_BODY_SIZE;
+    // The body limit for bulk imports (POST /api/workers/import)
+    private int maxImportSize = 32 * 1024 * 1024;
+
+    // Seconds browsers may use static files without asking. Dev mode serves and watches files from a directory
+    private int staticMaxAge = 0;
+    private String devContentDirectory;
+    // Files in this directory are streamed from disk instead of being cached in memory
+    private String contentRoot;
+
+    // gzip/deflate for clients that accept it. Smaller bodies are sent as they are
+    private boolean compression = true;
+    private int compressionMinSize = 1024;
+
+    // Workers and tasks are cached for this many milliseconds (0 = no cache), at most cacheMaxSize of each
+    private int cacheTtl = 5000;
+    private int cacheMaxSize = 10_000;
+
+    // Rows read from the database per round trip when a list is streamed to the client
+    private int streamingFetchSize = 500;
+
+    // Access log: "logger" (through logevents), "file" (rotated at accessLogMaxFileSize bytes, accessLogMaxFiles kept) or "off"
+    private String accessLog = "logger";
+    private String accessLogFile = "logs/access.log";
+    private int accessLogMaxFileSize = 10 * 1024 * 1024;
+    private int accessLogMaxFiles = 5;
+    // Records waiting to be written. When they are more, "drop" drops the new ones (counted in /admin/metrics)
+    // and "block" makes the requests wait
+    private int accessLogBufferSize = 8192;
+    private String accessLogOverflow = "drop";
+
+    public static ServerConfig fromProperties(Properties properties) {
+        ServerConfig config = new ServerConfig();
+        config.setEngine(properties.getProperty("server.engine", config.getEngine()));
+        config.setEventLoops(intProperty(properties, "server.eventLoops", config.getEventLoops()));
+        config.setExecutor(properties.getProperty("server.executor", config.getExecutor()));
+        config.setWorkerThreads(intProperty(properties, "server.workerThreads", config.getWorkerThreads()));
+        config.setWorkerQueueSize(intProperty(properties, "server.workerQueueSize", config.getWorkerQueueSize()));
+        config.setKeepAliveTimeout(intProperty(properties, "server.keepAliveTimeout", config.getKeepAliveTimeout()));
+        config.setMaxKeepAliveRequests(intProperty(properties, "server.maxKeepAliveRequests", config.getMaxKeepAliveRequests()));
+        config.setMaxHeaderSize(intProperty(properties, "server.maxHeaderSize", config.getMaxHeaderSize()));
+        config.setMaxBodySize(intProperty(properties, "server.maxBodySize", config.getMaxBodySize()));
+        config.setMaxImportSize(intProperty(properties, "server.maxImportSize", config.getMaxImportSize()));
+        config.setStaticMaxAge(intProperty(properties, "server.staticMaxAge", config.getStaticMaxAge()));
+        config.setDevContentDirectory(properties.getProperty("server.devContentDirectory"));
+        config.setContentRoot(properties.getProperty("server.contentRoot"));
+        config.setCompression(Boolean.parseBoolean(properties.getProperty("server.compression", String.valueOf(config.isCompression())).trim()));
+        config.setCompressionMinSize(intProperty(properties, "server.compressionMinSize", config.getCompressionMinSize()));
+        config.setCacheTtl(intProperty(properties, "server.cacheTtl", config.getCacheTtl()));
+        config.setCacheMaxSize(intProperty(properties, "server.cacheMaxSize", config.getCacheMaxSize()));
+        config.setStreamingFetchSize(intProperty(properties, "server.streamingFetchSize", config.getStreamingFetchSize()));
+        config.setAccessLog(properties.getProperty("server.accessLog", config.getAccessLog()));
+        config.setAccessLogFile(properties.getProperty("server.accessLogFile", config.getAccessLogFile()));
+        config.setAccessLogMaxFileSize(intProperty(properties, "server.accessLogMaxFileSize", config.getAccessLogMaxFileSize()));
+        config.setAccessLogMaxFiles(intProperty(properties, "server.accessLogMaxFiles", config.getAccessLogMaxFiles()));
+        config.setAccessLogBufferSize(intProperty(properties, "server.accessLogBufferSize", config.getAccessLogBufferSize()));
+        config.setAccessLogOverflow(properties.getProperty("server.accessLogOverflow", config.getAccessLogOverflow()));
+        return config;
+    }
+
+    public HttpMessageParser createParser() {
+        return new HttpMessageParser(maxHeaderSize, maxBodySize)
+                .allowLargerBody("/api/workers/import", maxImportSize);
+    }
+
+    static int intProperty(Properties properties, String name, int defaultValue) {
+        String value = properties.getProperty(name);
+        return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public void setEngine(String engine) {
+        this.engine = engine;
+    }
+
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    public void setEventLoops(int eventLoops) {
+        this.eventLoops = eventLoops;
+    }
+
+    public String getExecutor() {
+        return executor;
+    }
+
+    public void setExecutor(String executor) {
+        this.executor = executor;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public int getWorkerQueueSize() {
+        return workerQueueSize;
+    }
+
+    public void setWorkerQueueSize(int workerQueueSize) {
+        this.workerQueueSize = workerQueueSize;
+    }
+
+    public int getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    public void setKeepAliveTimeout(int keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    public int getMaxKeepAliveRequests() {
+        return maxKeepAliveRequests;
+    }
+
+    public void setMaxKeepAliveRequests(int maxKeepAliveRequests) {
+        this.maxKeepAliveRequests = maxKeepAliveRequests;
+    }
+
+    public int getMaxHeaderSize() {
+        return maxHeaderSize;
+    }
+
+    public void setMaxHeaderSize(int maxHeaderSize) {
+        this.maxHeaderSize = maxHeaderSize;
+    }
+
+    public int getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    public void setMaxBodySize(int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    public int getMaxImportSize() {
+        return maxImportSize;
+    }
+
+    public void setMaxImportSize(int maxImportSize) {
+        this.maxImportSize = maxImportSize;
+    }
+
+    public int getStaticMaxAge() {
+        return staticMaxAge;
+    }
+
+    public void setStaticMaxAge(int staticMaxAge) {
+        this.staticMaxAge = staticMaxAge;
+    }
+
+    public String getDevContentDirectory() {
+        return devContentDirectory;
+    }
+
+    public void setDevContentDirectory(String devContentDirectory) {
+        this.devContentDirectory = devContentDirectory;
+    }
+
+    public String getContentRoot() {
+        return contentRoot;
+    }
+
+    public void setContentRoot(String contentRoot) {
+        this.contentRoot = contentRoot;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public int getCompressionMinSize() {
+        return compressionMinSize;
+    }
+
+    public void setCompressionMinSize(int compressionMinSize) {
+        this.compressionMinSize = compressionMinSize;
+    }
+
+    public int getCacheTtl() {
+        return cacheTtl;
+    }
+
+    public void setCacheTtl(int cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    public int getCacheMaxSize() {
+        return cacheMaxSize;
+    }
+
+    public void setCacheMaxSize(int cacheMaxSize) {
+        this.cacheMaxSize = cacheMaxSize;
+    }
+
+    public int getStreamingFetchSize() {
+        return streamingFetchSize;
+    }
+
+    public void setStreamingFetchSize(int streamingFetchSize) {
+        this.streamingFetchSize = streamingFetchSize;
+    }
+
+    public String getAccessLog() {
+        return accessLog;
+    }
+
+    public void setAccessLog(String accessLog) {
+        this.accessLog = accessLog;
+    }
+
+    public String getAccessLogFile() {
+        return accessLogFile;
+    }
+
+    public void setAccessLogFile(String accessLogFile) {
+        this.accessLogFile = accessLogFile;
+    }
+
+    public int getAccessLogMaxFileSize() {
+        return accessLogMaxFileSize;
+    }
+
+    public void setAccessLogMaxFileSize(int accessLogMaxFileSize) {
+        this.accessLogMaxFileSize = accessLogMaxFileSize;
+    }
+
+    public int getAccessLogMaxFiles() {
+        return accessLogMaxFiles;
+    }
+
+    public void setAccessLogMaxFiles(int accessLogMaxFiles) {
+        this.accessLogMaxFiles = accessLogMaxFiles;
+    }
+
+    public int getAccessLogBufferSize() {
+        return accessLogBufferSize;
+    }
+
+    public void setAccessLogBufferSize(int accessLogBufferSize) {
+        this.accessLogBufferSize = accessLogBufferSize;
+    }
+
+    public String getAccessLogOverflow() {
+        return accessLogOverflow;
+    }
+
+    public void setAccessLogOverflow(String accessLogOverflow) {
+        this.accessLogOverflow = accessLogOverflow;
+    }
+
+    // null when the access log is off
+    public AccessLog createAccessLog() throws IOException {
+        boolean blockWhenFull = accessLogOverflow.equals("block");
+        switch (accessLog) {
+            case "off":
+                return null;
+            case "file":
+                return AccessLog.toFile(Paths.get(accessLogFile), accessLogMaxFileSize, accessLogMaxFiles, accessLogBufferSize, blockWhenFull);
+            default:
+                return AccessLog.toLogger(accessLogBufferSize, blockWhenFull);
+        }
+    }
+
+    public <T> EntityCache<T> createEntityCache() {
+        return cacheTtl > 0 ? new EntityCache<>(cacheMaxSize, cacheTtl) : null;
+    }
+}
@@ -0,0 +1,174 @@
+package no.kristiania.http;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+// Serves files from a directory on disk. The file content is never read into the heap: it is sent
+// with FileChannel.transferTo (sendfile) straight to the socket. Supports single byte ranges (206 Partial Content).
+// If there is a precompressed file next to it (style.css.gz) that is sent to clients that accept gzip
+public class StaticFileHandler {
+
+    private final Path contentRoot;
+    private final ResponseCompressor compressor;
+
+    public StaticFileHandler(Path contentRoot) {
+        this(contentRoot, new ResponseCompressor(false, 0));
+    }
+
+    public StaticFileHandler(Path contentRoot, ResponseCompressor compressor) {
+        this.contentRoot = contentRoot.toAbsolutePath().normalize();
+        this.compressor = compressor;
+    }
+
+    // Returns false if there is no such file, so the caller can look elsewhere
+    public boolean handle(HttpMessage request, String requestPath, Socket clientSocket) throws IOException {
+        Path file = contentRoot.resolve(requestPath.substring(1)).normalize();
+        if (!file.startsWith(contentRoot) || !Files.isRegularFile(file)) {
+            return false;
+        }
+
+        String contentType = ResourceCache.contentType(requestPath);
+        boolean gzip = false;
+        if (ResponseCompressor.isCompressible(contentType)
+                && "gzip".equals(compressor.negotiate(request.getHeaders().get("Accept-Encoding")))) {
+            Path compressedFile = file.resolveSibling(file.getFileName() + ".gz");
+            if (Files.isRegularFile(compressedFile)) {
+                compressor.record(requestPath, Files.size(file), Files.size(compressedFile));
+                file = compressedFile;
+                gzip = true;
+            }
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        long length = channel.size();
+        String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(Files.getLastModifiedTime(file).toMillis())
+                + (gzip ? "-gzip" : "") + "\"";
+
+        HttpMessage response = new HttpMessage();
+        Map<String, String> headers = response.getHeaders();
+        headers.put("Content-Type", contentType);
+        if (gzip) {
+            headers.put("Content-Encoding", "gzip");
+        }
+        if (ResponseCompressor.isCompressible(contentType)) {
+            headers.put("Vary", "Accept-Encoding");
+        }
+        headers.put("ETag", etag);
+        headers.put("Accept-Ranges", "bytes");
+
+        if (ResourceCache.etagMatches(request.getHeaders().get("If-None-Match"), etag)) {
+            channel.close();
+            response.setStartLine("HTTP/1.1 304 Not Modified");
+            response.write(clientSocket);
+            return true;
+        }
+
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeaders().get("Range");
+        if (range != null) {
+            long[] byteRange = parseRange(range, length);
+            if (byteRange == null) {
+                channel.close();
+                response.setStartLine("HTTP/1.1 416 Range Not Satisfiable");
+                headers.put("Content-Range", "bytes */" + length);
+                response.write(clientSocket);
+                return true;
+            }
+            if (byteRange.length == 2) {
+                start = byteRange[0];
+                end = byteRange[1];
+                response.setStartLine("HTTP/1.1 206 Partial Content");
+                headers.put("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+        if (response.getStartLine() == null) {
+            response.setStartLine("HTTP/1.1 200 OK");
+        }
+
+        try {
+            ResponseWriter.writeHead(clientSocket.getOutputStream(), response.getStartLine(), headers, end - start + 1);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        if (HttpExchange.isHeadRequest()) {
+            channel.close();
+            return true;
+        }
+        send(clientSocket, new FileRegion(channel, start, end - start + 1));
+        return true;
+    }
+
+    private static void send(Socket clientSocket, FileRegion region) throws IOException {
+        if (clientSocket instanceof ChannelSocket) {
+            // The nio engine transfers the file when it writes the response
+            ((ChannelSocket) clientSocket).addFileRegion(region);
+            return;
+        }
+        try {
+            boolean sent;
+            if (clientSocket.getChannel() != null) {
+                sent = region.transferTo(clientSocket.getChannel());
+            } else {
+                // A plain socket has no channel, so we have to copy through a buffer
+                sent = region.transferTo(Channels.newChannel(clientSocket.getOutputStream()));
+            }
+            if (!sent) {
+                // The client has been promised Content-Length bytes. Failing closes the connection, so it sees
+                // that the body was cut off instead of waiting for the rest
+                throw new IOException("Could not send the whole file");
+            }
+        } finally {
+            region.close();
+        }
+    }
+
+    // Returns {start, end} for a satisfiable single range, an empty array if the header should be ignored
+    // (other units or several ranges) and null if the range can't be satisfied
+    static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.contains(",")) {
+            return new long[0];
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dashPos = spec.indexOf('-');
+        if (dashPos == -1) {
+            return new long[0];
+        }
+        try {
+            String first = spec.substring(0, dashPos).trim();
+            String last = spec.substring(dashPos + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // bytes=-500 is the last 500 bytes
+                long suffixLength = Long.parseLong(last);
+                if (suffixLength == 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffixLength);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Long.parseLong(last);
+                if (!last.isEmpty() && end < start) {
+                    // Like bytes=500-100. That isn't a valid range, so the header is ignored
+                    return new long[0];
+                }
+                end = Math.min(end, length - 1);
+            }
+            if (start >= length) {
+                return null;
+            }
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+}
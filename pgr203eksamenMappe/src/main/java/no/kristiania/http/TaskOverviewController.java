@@ -0,0 +1,37 @@
+package no.kristiania.http;
+
+import no.kristiania.database.TaskWithWorkers;
+import no.kristiania.database.Worker;
+import no.kristiania.database.WorkerTaskDao;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.sql.SQLException;
+
+// Every task with how many workers it has and who they are, from one joined query
+public class TaskOverviewController implements HttpController {
+    private static final HtmlTemplate TASK = HtmlTemplate.compile("<li>{{name}} ({{workerCount}} workers)<ul>");
+    private static final HtmlTemplate WORKER = HtmlTemplate.compile("<li>{{firstName}} {{lastName}}</li>");
+
+    private final WorkerTaskDao workerTaskDao;
+
+    public TaskOverviewController(WorkerTaskDao workerTaskDao) {
+        this.workerTaskDao = workerTaskDao;
+    }
+
+    @Override
+    public void handle(HttpMessage request, Socket clientSocket) throws IOException, SQLException {
+        HtmlBuffer html = HtmlBuffer.forThread().appendRaw("<ul>");
+        for (TaskWithWorkers task : workerTaskDao.listWithWorkers()) {
+            TASK.render(html, task.getTask().getName(), task.getWorkerCount());
+            for (Worker worker : task.getWorkers()) {
+                WORKER.render(html, worker.getFirstName(), worker.getLastName());
+            }
+            html.appendRaw("</ul></li>");
+        }
+        html.appendRaw("</ul>");
+        HttpMessage response = new HttpMessage(html.toByteArray());
+        response.getHeaders().put("Content-Type", "text/html");
+        response.write(clientSocket);
+    }
+}
@@ -1,10 +1,12 @@
 package no.kristiania.http;
 
-import no.kristiania.database.Worker;
 import no.kristiania.database.WorkerDao;
 import java.io.IOException;
 import java.net.Socket;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 
 public class UpdateWorkerController implements HttpController{
     private WorkerDao workerDao;
@@ -20,20 +22,55 @@ public class UpdateWorkerController implements HttpController{
 
     }
 
+    // workerId may be given several times to give all of them the task in one update. With a version for each
+    // workerId the update is only done if none of the workers have changed since the client read them
     public HttpMessage handle(HttpMessage request) throws SQLException {
         QueryString requestParameter = new QueryString(request.getBody());
 
-        Integer workerId = Integer.valueOf(requestParameter.getParameter("workerId"));
-        Integer taskId = Integer.valueOf(requestParameter.getParameter("taskId"));
-        Worker worker = workerDao.retrieve(workerId);
-        worker.setTaskId(taskId);
+        List<Integer> workerIds;
+        List<Integer> versions;
+        Integer taskId;
+        try {
+            workerIds = toIntegers(requestParameter.getParameterValues("workerId"));
+            versions = toIntegers(requestParameter.getParameterValues("version"));
+            taskId = Integer.valueOf(requestParameter.getParameter("taskId"));
+            if (workerIds.isEmpty()) {
+                throw new IllegalArgumentException("workerId is missing");
+            }
+            if (!versions.isEmpty() && versions.size() != workerIds.size()) {
+                throw new IllegalArgumentException("Expected one version per workerId");
+            }
+        } catch (IllegalArgumentException e) {
+            return errorResponse("400 Bad Request", e.getMessage());
+        }
 
-        workerDao.update(worker);
+        if (versions.isEmpty()) {
+            // The same worker may be listed twice, but is only updated once
+            if (workerDao.assignTask(workerIds, taskId) != new HashSet<>(workerIds).size()) {
+                return errorResponse("404 Not Found", "Some of the workers don't exist. The others have been given the task");
+            }
+        } else if (!workerDao.assignTask(workerIds, versions, taskId)) {
+            return errorResponse("409 Conflict", "The workers have been changed by someone else. Reload and try again");
+        }
 
         HttpMessage redirect = new HttpMessage();
         redirect.setStartLine("HTTP/1.1 302 Redirect");
         redirect.getHeaders().put("Location", "http://localhost:8080/index.html");
         return redirect;
     }
-}
 
+    private static List<Integer> toIntegers(List<String> values) {
+        List<Integer> result = new ArrayList<>();
+        for (String value : values) {
+            result.add(Integer.valueOf(value));
+        }
+        return result;
+    }
+
+    private static HttpMessage errorResponse(String status, String message) {
+        HttpMessage response = new HttpMessage(message);
+        response.setStartLine("HTTP/1.1 " + status);
+        response.getHeaders().put("Content-Type", "text/plain");
+        return response;
+    }
+}
@@ -0,0 +1,139 @@
+package no.kristiania.http;
+
+import no.kristiania.database.Worker;
+import no.kristiania.database.WorkerDao;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+// POST /api/workers/import: many workers in one request, one per line. With Content-Type: text/csv the lines are
+// "first_name,last_name,email_address" (the header line is optional), otherwise each line is form data like
+// "first_name=Even&last_name=Larsen&email_address=even@even.no". Valid rows are inserted in one transaction,
+// and the response says how many were imported and what was wrong with the rest
+public class WorkerImportController implements HttpController {
+
+    private static final String CSV_HEADER = "first_name,last_name,email_address";
+
+    private final WorkerDao workerDao;
+
+    public WorkerImportController(WorkerDao workerDao) {
+        this.workerDao = workerDao;
+    }
+
+    @Override
+    public void handle(HttpMessage request, Socket clientSocket) throws IOException, SQLException {
+        String contentType = request.getHeaders().get("Content-Type");
+        boolean csv = contentType != null && contentType.startsWith("text/csv");
+
+        List<Worker> workers = new ArrayList<>();
+        StringBuilder errors = new StringBuilder();
+        // The raw body: form lines are decoded one by one, so an & or newline inside a value stays in that value
+        byte[] content = request.getContent() != null ? request.getContent() : new byte[0];
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || (csv && lineNumber == 1 && line.trim().equalsIgnoreCase(CSV_HEADER))) {
+                    continue;
+                }
+                try {
+                    Worker worker = csv ? parseCsv(line) : parseForm(line);
+                    validate(worker);
+                    workers.add(worker);
+                } catch (IllegalArgumentException e) {
+                    errors.append("line ").append(lineNumber).append(": ").append(e.getMessage()).append("\r\n");
+                }
+            }
+        }
+
+        workerDao.insertAll(workers);
+
+        HttpMessage response = new HttpMessage("imported " + workers.size() + "\r\n" + errors);
+        response.getHeaders().put("Content-Type", "text/plain; charset=utf-8");
+        response.write(clientSocket);
+    }
+
+    static Worker parseForm(String line) {
+        Worker worker = new Worker();
+        for (String parameter : line.split("&")) {
+            int equalsPos = parameter.indexOf('=');
+            if (equalsPos == -1) {
+                throw new IllegalArgumentException("expected name=value, got " + parameter);
+            }
+            String value;
+            try {
+                value = URLDecoder.decode(parameter.substring(equalsPos + 1), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                // Like a % that isn't followed by two hex digits
+                throw new IllegalArgumentException("bad escape in " + parameter);
+            }
+            switch (parameter.substring(0, equalsPos)) {
+                case "first_name": worker.setFirstName(value); break;
+                case "last_name": worker.setLastName(value); break;
+                case "email_address": worker.setEmail(value); break;
+                default: throw new IllegalArgumentException("unknown field " + parameter.substring(0, equalsPos));
+            }
+        }
+        return worker;
+    }
+
+    // Fields may be quoted, and a quote inside a quoted field is written as two quotes: "Larsen, ""Even"""
+    static Worker parseCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quote");
+        }
+        fields.add(field.toString().trim());
+        if (fields.size() != 3) {
+            throw new IllegalArgumentException("expected 3 fields, got " + fields.size());
+        }
+        Worker worker = new Worker();
+        worker.setFirstName(fields.get(0));
+        worker.setLastName(fields.get(1));
+        worker.setEmail(fields.get(2));
+        return worker;
+    }
+
+    private static void validate(Worker worker) {
+        if (worker.getFirstName() == null || worker.getFirstName().isEmpty()) {
+            throw new IllegalArgumentException("first_name is missing");
+        }
+        if (worker.getLastName() == null || worker.getLastName().isEmpty()) {
+            throw new IllegalArgumentException("last_name is missing");
+        }
+        if (worker.getEmail() == null || !worker.getEmail().contains("@")) {
+            throw new IllegalArgumentException("email_address is not an email address");
+        }
+    }
+}
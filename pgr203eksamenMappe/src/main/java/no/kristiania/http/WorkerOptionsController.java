@@ -9,6 +9,8 @@ import java.net.Socket;
 import java.sql.SQLException;
 
 public class WorkerOptionsController implements HttpController{
+    private static final HtmlTemplate OPTION = HtmlTemplate.compile("<option value={{id}}>{{firstName}}</option>");
+
     private WorkerDao workerDao;
 
     public WorkerOptionsController(WorkerDao workerDao) {
@@ -17,16 +19,19 @@ public class WorkerOptionsController implements HttpController{
 
     @Override
     public void handle(HttpMessage request, Socket clientSocket) throws IOException, SQLException {
-        HttpMessage response = new HttpMessage(getBody());
+        HttpMessage response = new HttpMessage(render().toByteArray());
         response.write(clientSocket);
     }
 
     public String getBody() throws SQLException {
-        String body = "";
+        return render().toString();
+    }
+
+    private HtmlBuffer render() throws SQLException {
+        HtmlBuffer html = HtmlBuffer.forThread();
         for (Worker worker : workerDao.list()) {
-            body += "<option value=" + worker.getId() + ">" + worker.getFirstName() + "</option>";
+            OPTION.render(html, worker.getId(), worker.getFirstName());
         }
-
-        return body;
+        return html;
     }
 }
@@ -8,6 +8,8 @@ import java.net.Socket;
 import java.sql.SQLException;
 
 public class WorkerTaskOptionsController implements HttpController {
+    private static final HtmlTemplate OPTION = HtmlTemplate.compile("<option value={{id}}>{{name}}</option>");
+
     private WorkerTaskDao taskDao;
 
     public WorkerTaskOptionsController(WorkerTaskDao taskDao) {
@@ -16,17 +18,20 @@ public class WorkerTaskOptionsController implements HttpController {
 
     @Override
     public void handle(HttpMessage request, Socket clientSocket) throws IOException, SQLException {
-        HttpMessage response = new HttpMessage(getBody());
+        HttpMessage response = new HttpMessage(render().toByteArray());
         response.write(clientSocket);
     }
 
-        public String getBody() throws SQLException {
-            String body = "";
-            for (WorkerTask task : taskDao.list()) {
-                body += "<option value=" + task.getId() + ">" + task.getName() + "</option>";
-            }
+    public String getBody() throws SQLException {
+        return render().toString();
+    }
 
-            return body;
+    private HtmlBuffer render() throws SQLException {
+        HtmlBuffer html = HtmlBuffer.forThread();
+        for (WorkerTask task : taskDao.list()) {
+            OPTION.render(html, task.getId(), task.getName());
         }
+        return html;
     }
+}
 
@@ -22,13 +22,6 @@ public class WorkerTaskPostController implements HttpController {
         task.setName(requestParameter.getParameter("taskName"));
         workerTaskDao.insert(task);
 
-        String body = "Okay";
-        String response = "HTTP/1.1 200 OK\r\n" +
-                "Connection: close\r\n" +
-                "Content-Length: " + body.length() + "\r\n" +
-                "\r\n" +
-                body;
-
-        clientSocket.getOutputStream().write(response.getBytes());
+        new HttpMessage("Okay").write(clientSocket);
     }
 }
@@ -0,0 +1 @@
+alter table workers add column version integer not null default 0;
\ No newline at end of file
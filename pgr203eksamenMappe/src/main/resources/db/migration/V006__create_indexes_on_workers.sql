@@ -0,0 +1,2 @@
+create index workers_task_id_idx on workers (task_id);
+create index workers_email_address_idx on workers (email_address);
\ No newline at end of file
@@ -0,0 +1,225 @@
+package no.kristiania.database;
+
+import org.flywaydb.core.Flyway;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PooledDataSourceTest {
+
+    private PooledDataSource pool;
+
+    @BeforeEach
+    void setUp() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setUrl("jdbc:h2:mem:test;DB_CLOSE_DELAY=-1");
+        Flyway.configure().dataSource(dataSource).load().migrate();
+        pool = new PooledDataSource(dataSource);
+        pool.setMinSize(0);
+        pool.setMaxSize(2);
+        pool.setAcquireTimeout(100);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    void shouldReuseConnections() throws SQLException {
+        WorkerDao workerDao = new WorkerDao(pool);
+        Worker worker = new Worker();
+        worker.setFirstName("Even");
+        worker.setLastName("Larsen");
+        worker.setEmail("even@even.no");
+        for (int i = 0; i < 10; i++) {
+            workerDao.insert(worker);
+            assertThat(workerDao.retrieve(worker.getId()).getFirstName()).isEqualTo("Even");
+        }
+        assertEquals(1, pool.getCreated());
+        assertEquals(20, pool.getAcquired());
+        assertEquals(0, pool.getActive());
+        assertEquals(1, pool.getIdle());
+    }
+
+    @Test
+    void shouldPrepareEachStatementOncePerConnection() throws SQLException {
+        WorkerTaskDao taskDao = new WorkerTaskDao(pool);
+        WorkerTask task = new WorkerTask();
+        task.setName("Cleaning");
+        for (int i = 0; i < 10; i++) {
+            taskDao.insert(task);
+            assertThat(taskDao.retrieve(task.getId()).getName()).isEqualTo("Cleaning");
+            taskDao.list();
+        }
+        assertEquals(3, pool.getStatementMisses());
+        assertEquals(27, pool.getStatementHits());
+    }
+
+    @Test
+    void shouldCloseLeastRecentlyUsedStatements() throws SQLException {
+        pool.setStatementCacheSize(2);
+        try (Connection connection = pool.getConnection()) {
+            PooledDataSource.StatementCaching caching = (PooledDataSource.StatementCaching) connection;
+            PreparedStatement first = caching.prepareCached("select 1", Statement.NO_GENERATED_KEYS);
+            ResultSet rs = first.executeQuery();
+            rs.next();
+            first.close();
+            caching.prepareCached("select 2", Statement.NO_GENERATED_KEYS).close();
+            caching.prepareCached("select 1", Statement.NO_GENERATED_KEYS).close();
+            caching.prepareCached("select 3", Statement.NO_GENERATED_KEYS).close();
+            caching.prepareCached("select 1", Statement.NO_GENERATED_KEYS).close();
+            caching.prepareCached("select 2", Statement.NO_GENERATED_KEYS).close();
+        }
+        // "select 2" was the least recently used when "select 3" came, so it had to be prepared again
+        assertEquals(4, pool.getStatementMisses());
+        assertEquals(2, pool.getStatementHits());
+    }
+
+    @Test
+    void shouldNotCloseEvictedStatementWhileInUse() throws SQLException {
+        pool.setStatementCacheSize(1);
+        try (Connection connection = pool.getConnection()) {
+            PooledDataSource.StatementCaching caching = (PooledDataSource.StatementCaching) connection;
+            PreparedStatement outer = caching.prepareCached("select 1 union select 2", Statement.NO_GENERATED_KEYS);
+            ResultSet rs = outer.executeQuery();
+            assertTrue(rs.next());
+            // Pushes the outer statement out of the cache while its result set is being read
+            caching.prepareCached("select 3", Statement.NO_GENERATED_KEYS).close();
+            assertTrue(rs.next());
+            assertEquals(2, rs.getInt(1));
+            outer.close();
+            caching.prepareCached("select 1 union select 2", Statement.NO_GENERATED_KEYS).close();
+        }
+        assertEquals(3, pool.getStatementMisses());
+    }
+
+    @Test
+    void shouldNotShareStatementsThatAreInUse() throws SQLException {
+        try (Connection connection = pool.getConnection()) {
+            PooledDataSource.StatementCaching caching = (PooledDataSource.StatementCaching) connection;
+            try (PreparedStatement outer = caching.prepareCached("select 1", Statement.NO_GENERATED_KEYS);
+                 PreparedStatement inner = caching.prepareCached("select 1", Statement.NO_GENERATED_KEYS)) {
+                assertNotSame(outer, inner);
+                assertTrue(outer.executeQuery().next());
+                assertTrue(inner.executeQuery().next());
+            }
+        }
+    }
+
+    @Test
+    void shouldTimeOutWhenAllConnectionsAreInUse() throws SQLException {
+        try (Connection first = pool.getConnection(); Connection second = pool.getConnection()) {
+            assertNotSame(first, second);
+            assertEquals(2, pool.getActive());
+            assertThrows(SQLTransientConnectionException.class, () -> pool.getConnection());
+            assertEquals(1, pool.getTimeouts());
+        }
+        try (Connection connection = pool.getConnection()) {
+            assertTrue(connection.isValid(1));
+        }
+    }
+
+    @Test
+    void shouldNotLetConnectionBeUsedAfterClose() throws SQLException {
+        Connection connection = pool.getConnection();
+        connection.close();
+        connection.close();
+        assertTrue(connection.isClosed());
+        assertThrows(SQLException.class, connection::createStatement);
+        assertEquals(1, pool.getIdle());
+    }
+
+    @Test
+    void shouldNotLetStatementsBeUsedAfterClose() throws SQLException {
+        Connection connection = pool.getConnection();
+        PreparedStatement statement = connection.prepareStatement("select 1");
+        ResultSet rs = statement.executeQuery();
+        assertSame(connection, statement.getConnection());
+        assertSame(statement, rs.getStatement());
+        connection.close();
+
+        assertThrows(SQLException.class, statement::executeQuery);
+        assertThrows(SQLException.class, rs::next);
+        assertTrue(statement.isClosed());
+        statement.close();
+    }
+
+    @Test
+    void shouldRollBackUnfinishedTransactions() throws SQLException {
+        try (Connection connection = pool.getConnection()) {
+            connection.setAutoCommit(false);
+            connection.createStatement().executeUpdate("insert into worker_tasks (name) values ('never committed')");
+        }
+        try (Connection connection = pool.getConnection()) {
+            assertTrue(connection.getAutoCommit());
+        }
+        assertThat(new WorkerTaskDao(pool).list()).extracting(WorkerTask::getName).doesNotContain("never committed");
+    }
+
+    @Test
+    void shouldEvictIdleConnections() throws SQLException {
+        pool.setIdleTimeout(1000);
+        try (Connection first = pool.getConnection(); Connection second = pool.getConnection()) {
+            assertNotSame(first, second);
+            assertEquals(2, pool.getTotal());
+        }
+        pool.evictIdleConnections(System.currentTimeMillis() + 2000);
+        assertEquals(0, pool.getTotal());
+        assertEquals(2, pool.getEvicted());
+    }
+
+    @Test
+    void shouldDiscardConnectionAfterConnectionErrorFromResultSet() throws SQLException {
+        // A database that goes away while a result set is being read
+        DataSource failing = (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { DataSource.class },
+                (proxy, method, args) -> stub(Connection.class, (connection, connectionMethod, connectionArgs) -> {
+                    if (connectionMethod.getName().equals("createStatement")) {
+                        return stub(Statement.class, (statement, statementMethod, statementArgs) ->
+                                stub(ResultSet.class, (resultSet, resultSetMethod, resultSetArgs) -> {
+                                    throw new SQLException("Communication link failure", "08S01");
+                                }));
+                    }
+                    return connectionMethod.getName().equals("getAutoCommit") ? true : null;
+                }));
+        PooledDataSource failingPool = new PooledDataSource(failing);
+        failingPool.setMinSize(0);
+        try (Connection connection = failingPool.getConnection()) {
+            ResultSet rs = connection.createStatement().executeQuery("select 1");
+            assertThrows(SQLException.class, rs::next);
+        }
+        assertEquals(0, failingPool.getIdle());
+        assertEquals(0, failingPool.getTotal());
+        failingPool.close();
+    }
+
+    private static Object stub(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(PooledDataSourceTest.class.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+    @Test
+    void shouldReadSettingsFromProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("dataSource.pool.maxSize", "20");
+        properties.setProperty("dataSource.pool.acquireTimeout", "250");
+        PooledDataSource configured = PooledDataSource.fromProperties(new JdbcDataSource(), properties);
+        assertEquals(20, configured.getMaxSize());
+        assertEquals(250, configured.getAcquireTimeout());
+        assertEquals(2, configured.getMinSize());
+    }
+}
@@ -5,12 +5,14 @@ import org.h2.jdbcx.JdbcDataSource;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import java.sql.SQLException;
+import java.util.List;
 import java.util.Random;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class TaskDaoTest {
     private WorkerTaskDao TaskDao;
+    private WorkerDao workerDao;
     private static Random random = new Random();
 
     @BeforeEach
@@ -19,6 +21,7 @@ public class TaskDaoTest {
         dataSource.setURL("jdbc:h2:mem:test;DB_CLOSE_DELAY=-1");
         Flyway.configure().dataSource(dataSource).load().migrate();
         TaskDao = new WorkerTaskDao(dataSource);
+        workerDao = new WorkerDao(dataSource);
     }
     @Test
     void shouldListAllTasks() throws SQLException {
@@ -47,6 +50,31 @@ public class TaskDaoTest {
 
     }
 
+    @Test
+    void shouldListTasksWithTheirWorkers() throws SQLException {
+        WorkerTask busyTask = exampleTask();
+        WorkerTask idleTask = exampleTask();
+        TaskDao.insert(busyTask);
+        TaskDao.insert(idleTask);
+        Worker first = WorkerDaoTest.exampleWorker();
+        Worker second = WorkerDaoTest.exampleWorker();
+        workerDao.insert(first);
+        workerDao.insert(second);
+        workerDao.assignTask(List.of(first.getId(), second.getId()), busyTask.getId());
+
+        List<TaskWithWorkers> tasks = TaskDao.listWithWorkers();
+        assertThat(tasks).extracting(task -> task.getTask().getId()).isSorted();
+
+        TaskWithWorkers busy = tasks.stream().filter(task -> task.getTask().getId().equals(busyTask.getId())).findFirst().orElseThrow();
+        assertThat(busy.getWorkerCount()).isEqualTo(2);
+        assertThat(busy.getWorkers()).extracting(Worker::getId).containsExactly(first.getId(), second.getId());
+        assertThat(busy.getWorkers().get(0).getFirstName()).isEqualTo(first.getFirstName());
+
+        TaskWithWorkers idle = tasks.stream().filter(task -> task.getTask().getId().equals(idleTask.getId())).findFirst().orElseThrow();
+        assertThat(idle.getTask().getName()).isEqualTo(idleTask.getName());
+        assertThat(idle.getWorkers()).isEmpty();
+    }
+
     public static WorkerTask exampleTask() {
         WorkerTask task = new WorkerTask();
         task.setName(exampleTaskName());
@@ -9,7 +9,11 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeEach;
 
 import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -19,10 +23,11 @@ public class WorkerDaoTest {
     private WorkerDao workerDao;
     private static Random random = new Random();
     private WorkerTaskDao taskDao;
+    private JdbcDataSource dataSource;
 
     @BeforeEach
     void setUp(){
-        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource = new JdbcDataSource();
         dataSource.setUrl("jdbc:h2:mem:test;DB_CLOSE_DELAY=-1");
         Flyway.configure().dataSource(dataSource).load().migrate();
         workerDao = new WorkerDao(dataSource);
@@ -83,6 +88,152 @@ public class WorkerDaoTest {
 
     }
 
+    @Test
+    void shouldAssignTaskToManyWorkersInOneUpdate() throws IOException, SQLException {
+        UpdateWorkerController controller = new UpdateWorkerController(workerDao);
+        Worker first = exampleWorker();
+        Worker second = exampleWorker();
+        Worker untouched = exampleWorker();
+        workerDao.insert(first);
+        workerDao.insert(second);
+        workerDao.insert(untouched);
+        Integer taskId = insertTask();
+
+        String body = "workerId=" + first.getId() + "&workerId=" + second.getId() + "&taskId=" + taskId;
+        assertThat(controller.handle(new HttpMessage(body)).getStartLine()).isEqualTo("HTTP/1.1 302 Redirect");
+
+        assertThat(workerDao.retrieve(first.getId()).getTaskId()).isEqualTo(taskId);
+        assertThat(workerDao.retrieve(second.getId()).getTaskId()).isEqualTo(taskId);
+        assertThat(workerDao.retrieve(untouched.getId()).getTaskId()).isNull();
+        assertThat(workerDao.assignTask(-1, taskId)).isFalse();
+        assertThat(controller.handle(new HttpMessage("workerId=" + first.getId() + "&workerId=-1&taskId=" + taskId)).getStartLine())
+                .isEqualTo("HTTP/1.1 404 Not Found");
+        assertThat(controller.handle(new HttpMessage("workerId=" + first.getId() + "&workerId=" + first.getId() + "&taskId=" + taskId)).getStartLine())
+                .isEqualTo("HTTP/1.1 302 Redirect");
+        assertThat(controller.handle(new HttpMessage("taskId=" + taskId)).getStartLine()).isEqualTo("HTTP/1.1 400 Bad Request");
+    }
+
+    @Test
+    void shouldNotOverwriteConcurrentUpdates() throws IOException, SQLException {
+        Worker worker = exampleWorker();
+        workerDao.insert(worker);
+        Worker firstRead = workerDao.retrieve(worker.getId());
+        Worker secondRead = workerDao.retrieve(worker.getId());
+
+        firstRead.setTaskId(insertTask());
+        assertThat(workerDao.update(firstRead)).isTrue();
+        secondRead.setTaskId(insertTask());
+        assertThat(workerDao.update(secondRead)).isFalse();
+        assertThat(workerDao.retrieve(worker.getId()).getTaskId()).isEqualTo(firstRead.getTaskId());
+
+        // The same for clients that send the version they read
+        UpdateWorkerController controller = new UpdateWorkerController(workerDao);
+        Worker other = exampleWorker();
+        workerDao.insert(other);
+        String staleBody = "workerId=" + other.getId() + "&version=0&workerId=" + worker.getId() + "&version=0&taskId=" + insertTask();
+        assertThat(controller.handle(new HttpMessage(staleBody)).getStartLine()).isEqualTo("HTTP/1.1 409 Conflict");
+        // Nothing is updated when one of the workers has changed
+        assertThat(workerDao.retrieve(other.getId()).getTaskId()).isNull();
+
+        String currentBody = "workerId=" + other.getId() + "&version=0&workerId=" + worker.getId() + "&version=1&taskId=" + secondRead.getTaskId();
+        assertThat(controller.handle(new HttpMessage(currentBody)).getStartLine()).isEqualTo("HTTP/1.1 302 Redirect");
+        assertThat(workerDao.retrieve(other.getId()).getTaskId()).isEqualTo(secondRead.getTaskId());
+        assertThat(workerDao.retrieve(worker.getId()).getVersion()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldListWorkersOnePageAtATime() throws SQLException {
+        for (int i = 0; i < 5; i++) {
+            workerDao.insert(exampleWorker());
+        }
+        List<Worker> firstPage = workerDao.listPage(0, 3);
+        assertThat(firstPage).hasSize(3);
+        assertThat(firstPage).extracting(Worker::getId).isSorted();
+
+        List<Worker> secondPage = workerDao.listPage(firstPage.get(2).getId(), 3);
+        assertThat(secondPage).isNotEmpty();
+        assertThat(secondPage.get(0).getId()).isGreaterThan(firstPage.get(2).getId());
+    }
+
+    @Test
+    void shouldInsertAllWorkersInBatches() throws SQLException {
+        EntityCache<Worker> cache = new EntityCache<>(100, 60_000);
+        WorkerDao cachedDao = new WorkerDao(dataSource, cache);
+        assertThat(cachedDao.list()).isNotNull();
+
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            workers.add(exampleWorker());
+        }
+        cachedDao.insertAll(workers);
+
+        assertThat(workers).extracting(Worker::getId).doesNotContainNull().doesNotHaveDuplicates().isSorted();
+        assertThat(workerDao.retrieve(workers.get(2499).getId()))
+                .usingRecursiveComparison()
+                .isEqualTo(workers.get(2499));
+        // The cached list from before the import is not used
+        assertThat(cachedDao.list()).extracting(Worker::getId).contains(workers.get(0).getId(), workers.get(2499).getId());
+
+        // The database is shared with the other tests, which expect short lists
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("delete from workers where id >= ?")) {
+            statement.setInt(1, workers.get(0).getId());
+            statement.executeUpdate();
+        }
+    }
+
+    @Test
+    void shouldServeReadsFromCacheAndUpdateItOnWrites() throws SQLException {
+        EntityCache<Worker> cache = new EntityCache<>(100, 60_000);
+        WorkerDao cachedDao = new WorkerDao(dataSource, cache);
+        Worker worker = exampleWorker();
+        cachedDao.insert(worker);
+
+        // Our own insert is in the cache already
+        assertThat(cachedDao.retrieve(worker.getId()).getFirstName()).isEqualTo(worker.getFirstName());
+        assertThat(cache.getHits()).isEqualTo(1);
+
+        assertThat(cachedDao.list()).extracting(Worker::getId).contains(worker.getId());
+        assertThat(cachedDao.list()).extracting(Worker::getId).contains(worker.getId());
+        assertThat(cache.getHits()).isEqualTo(2);
+
+        // Changing a retrieved worker doesn't change the cache until it is saved
+        Worker retrieved = cachedDao.retrieve(worker.getId());
+        retrieved.setTaskId(insertTask());
+        assertThat(cachedDao.retrieve(worker.getId()).getTaskId()).isNull();
+        cachedDao.update(retrieved);
+        assertThat(cachedDao.retrieve(worker.getId()).getTaskId()).isEqualTo(retrieved.getTaskId());
+        assertThat(cachedDao.list()).extracting(Worker::getTaskId).contains(retrieved.getTaskId());
+
+        Worker other = exampleWorker();
+        cachedDao.insert(other);
+        assertThat(cachedDao.list()).extracting(Worker::getId).contains(other.getId());
+    }
+
+    @Test
+    void shouldExpireAndEvictCachedWorkers() throws SQLException {
+        EntityCache<Worker> cache = new EntityCache<>(2, 60_000);
+        WorkerDao cachedDao = new WorkerDao(dataSource, cache);
+        for (int i = 0; i < 3; i++) {
+            cachedDao.insert(exampleWorker());
+        }
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.getEvictions()).isEqualTo(1);
+
+        EntityCache<Worker> expiringCache = new EntityCache<>(100, 0);
+        WorkerDao expiringDao = new WorkerDao(dataSource, expiringCache);
+        Worker worker = exampleWorker();
+        expiringDao.insert(worker);
+        assertThat(expiringDao.retrieve(worker.getId())).isNotNull();
+        assertThat(expiringCache.getHits()).isZero();
+        assertThat(expiringCache.getMisses()).isEqualTo(1);
+    }
+
+    private Integer insertTask() throws SQLException {
+        WorkerTask task = TaskDaoTest.exampleTask();
+        taskDao.insert(task);
+        return task.getId();
+    }
 
     public static Worker exampleWorker(){
         Worker worker = new Worker();
@@ -0,0 +1,138 @@
+package no.kristiania.http;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AccessLogTest {
+
+    @Test
+    void shouldWriteOneLinePerRequest(@TempDir Path tempDir) throws IOException {
+        Path file = tempDir.resolve("logs/access.log");
+        AccessLog accessLog = AccessLog.toFile(file, 1024 * 1024, 5, 16, false);
+        accessLog.log("GET /api/workers?limit=10 HTTP/1.1", 3, 16, 200, 5120, 1_234_567);
+        accessLog.log("POST /api/newWorker HTTP/1.1", 4, 19, 500, -1, 45_000);
+        accessLog.close();
+
+        List<String> lines = Files.readAllLines(file);
+        assertThat(lines).hasSize(2);
+        assertThat(lines.get(0)).endsWith(" GET /api/workers 200 5120 1.234");
+        assertThat(lines.get(1)).endsWith(" POST /api/newWorker 500 - 0.045");
+        assertThat(accessLog.getWritten()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldWriteMalformedRequestLine(@TempDir Path tempDir) throws IOException {
+        Path file = tempDir.resolve("access.log");
+        AccessLog accessLog = AccessLog.toFile(file, 1024 * 1024, 5, 16, false);
+        accessLog.log("FOO", -1, -1, 400, 0, 1000);
+        accessLog.log("GET /index.html HTTP/1.1", 3, 15, 200, 100, 1000);
+        accessLog.close();
+
+        List<String> lines = Files.readAllLines(file);
+        assertThat(lines).hasSize(2);
+        assertThat(lines.get(0)).endsWith(" FOO  400 0 0.001");
+        assertThat(lines.get(1)).endsWith(" GET /index.html 200 100 0.001");
+    }
+
+    @Test
+    void shouldKeepWritingAfterFailure() throws IOException {
+        List<String> lines = new ArrayList<>();
+        AccessLog accessLog = new AccessLog(new AccessLog.Sink() {
+            @Override
+            public void write(CharSequence line) {
+                if (line.toString().contains("/fail")) {
+                    throw new IllegalStateException("Sink failed");
+                }
+                lines.add(line.toString());
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        }, 16, false);
+        accessLog.log("GET /fail HTTP/1.1", 3, 9, 200, 0, 1000);
+        // Wait for the writer, so the failed record is not in the same batch as the next
+        for (int i = 0; i < 500 && accessLog.getDropped() == 0; i++) {
+            LockSupport.parkNanos(10_000_000);
+        }
+        accessLog.log("GET /next HTTP/1.1", 3, 9, 200, 0, 1000);
+        accessLog.close();
+
+        assertThat(accessLog.getDropped()).isEqualTo(1);
+        assertThat(lines).hasSize(1);
+        assertThat(lines.get(0)).endsWith(" GET /next 200 0 0.001");
+    }
+
+    @Test
+    void shouldRotateFiles(@TempDir Path tempDir) throws IOException {
+        Path file = tempDir.resolve("access.log");
+        AccessLog accessLog = AccessLog.toFile(file, 200, 2, 16, false);
+        for (int i = 0; i < 20; i++) {
+            accessLog.log("GET /index.html HTTP/1.1", 3, 15, 200, 100, 1000);
+        }
+        accessLog.close();
+
+        assertThat(Files.size(file)).isLessThanOrEqualTo(200);
+        assertThat(tempDir.resolve("access.log.1")).exists();
+        assertThat(tempDir.resolve("access.log.2")).exists();
+        assertThat(tempDir.resolve("access.log.3")).doesNotExist();
+    }
+
+    @Test
+    void shouldDropRecordsWhenBufferIsFull() throws InterruptedException {
+        BlockingSink sink = new BlockingSink();
+        AccessLog accessLog = new AccessLog(sink, 4, false);
+        accessLog.log("GET /first HTTP/1.1", 3, 10, 200, 0, 1000);
+        // The writer has taken the first record, and waits in the sink until we let it go
+        assertThat(sink.writing.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 0; i < 7; i++) {
+            accessLog.log("GET /next HTTP/1.1", 3, 9, 200, 0, 1000);
+        }
+        assertThat(accessLog.getDropped()).isEqualTo(3);
+
+        sink.release.countDown();
+        accessLog.close();
+        assertThat(sink.lines).hasSize(5);
+        assertThat(accessLog.getWritten()).isEqualTo(5);
+    }
+
+    private static class BlockingSink implements AccessLog.Sink {
+        private final CountDownLatch writing = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final List<String> lines = new ArrayList<>();
+
+        @Override
+        public void write(CharSequence line) {
+            lines.add(line.toString());
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package no.kristiania.http;
+
+import no.kristiania.database.Worker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Compares building the worker list with body += (as the controllers used to) with HtmlTemplate.
+// Run main() from the IDE; it is not part of the test suite
+public class HtmlRenderingBenchmark {
+
+    private static final HtmlTemplate WORKER = HtmlTemplate.compile("<li>Name: {{firstName}} {{lastName}}</li><li>Email: {{email}}</li>");
+
+    public static void main(String[] args) {
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            Worker worker = new Worker();
+            worker.setId(i);
+            worker.setFirstName("Even" + i);
+            worker.setLastName("Larsen");
+            worker.setEmail("even" + i + "@even.no");
+            workers.add(worker);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            // body += copies everything rendered so far for each row, so it is too slow to run on all 100 000
+            for (int count : new int[] { 5_000, 10_000, 20_000 }) {
+                long start = System.nanoTime();
+                String body = concatenate(workers.subList(0, count));
+                System.out.printf("round %d: body += with %,d workers: %,d ms (%,d bytes)%n",
+                        round, count, (System.nanoTime() - start) / 1_000_000, body.length());
+            }
+            long start = System.nanoTime();
+            int bytes = 0;
+            for (int i = 0; i < 10; i++) {
+                bytes = render(workers).length;
+            }
+            System.out.printf("round %d: HtmlTemplate with %,d workers: %,.1f ms (%,d bytes)%n",
+                    round, workers.size(), (System.nanoTime() - start) / 10 / 1_000_000.0, bytes);
+        }
+    }
+
+    private static String concatenate(List<Worker> workers) {
+        String body = "<ul>";
+        for (Worker worker : workers) {
+            body += "<li>" + "Name: "+ worker.getFirstName() + " " + worker.getLastName()+ "</li>" + "<li>" + "Email: " + worker.getEmail() + "</li>";
+        }
+        body += "</ul>";
+        return body;
+    }
+
+    private static byte[] render(List<Worker> workers) {
+        HtmlBuffer html = HtmlBuffer.forThread().appendRaw("<ul>");
+        for (Worker worker : workers) {
+            WORKER.render(html, worker.getFirstName(), worker.getLastName(), worker.getEmail());
+        }
+        return html.appendRaw("</ul>").toByteArray();
+    }
+}
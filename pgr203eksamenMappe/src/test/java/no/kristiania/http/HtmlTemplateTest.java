@@ -0,0 +1,51 @@
+package no.kristiania.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.*;
+
+class HtmlTemplateTest {
+
+    private static final HtmlTemplate OPTION = HtmlTemplate.compile("<option value={{id}}>{{name}}</option>");
+
+    @Test
+    void shouldFillHolesInOrder() {
+        HtmlBuffer html = HtmlBuffer.forThread();
+        OPTION.render(html, 12, "Even");
+        OPTION.render(html, -3, "Matre");
+        assertEquals("<option value=12>Even</option><option value=-3>Matre</option>", html.toString());
+    }
+
+    @Test
+    void shouldEscapeValues() {
+        HtmlBuffer html = HtmlBuffer.forThread();
+        OPTION.render(html, 1, "<script>alert('hi & \"bye\"')</script>");
+        assertEquals("<option value=1>&lt;script&gt;alert(&#39;hi &amp; &quot;bye&quot;&#39;)&lt;/script&gt;</option>", html.toString());
+    }
+
+    @Test
+    void shouldEncodeUtf8() {
+        HtmlBuffer html = HtmlBuffer.forThread();
+        String name = "Øystein Ødegård på € og 😀";
+        OPTION.render(html, 1, name);
+        assertArrayEquals(("<option value=1>" + name + "</option>").getBytes(StandardCharsets.UTF_8), html.toByteArray());
+    }
+
+    @Test
+    void shouldRenderNullAsNothing() {
+        HtmlBuffer html = HtmlBuffer.forThread();
+        OPTION.render(html, 1, null);
+        assertEquals("<option value=1></option>", html.toString());
+    }
+
+    @Test
+    void shouldRequireOneValueForEachHole() {
+        assertThatThrownBy(() -> OPTION.render(HtmlBuffer.forThread(), 1))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> HtmlTemplate.compile("<li>{{name</li>"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,162 @@
+package no.kristiania.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class HttpMessageParserTest {
+
+    private final HttpMessageParser parser = new HttpMessageParser();
+
+    @Test
+    void shouldParseRequestWithoutBody() throws IOException {
+        HttpMessage message = parser.parse(bytes("GET /echo HTTP/1.1\r\nHost: localhost\r\n\r\n"));
+        assertEquals("GET /echo HTTP/1.1", message.getStartLine());
+        assertEquals("localhost", message.getHeaders().get("Host"));
+        assertNull(message.getBody());
+    }
+
+    @Test
+    void shouldParseMessageArrivingInPieces() throws IOException {
+        assertNull(parser.parse(bytes("POST /api/newTask HT")));
+        assertNull(parser.parse(bytes("TP/1.1\r\nContent-Le")));
+        assertNull(parser.parse(bytes("ngth: 15\r\n\r\ntaskName")));
+        HttpMessage message = parser.parse(bytes("=urgent"));
+        assertEquals("POST /api/newTask HTTP/1.1", message.getStartLine());
+        assertEquals("taskName=urgent", message.getBody());
+        assertThat(parser.isIdle()).isTrue();
+    }
+
+    @Test
+    void shouldLeaveNextMessageInBuffer() throws IOException {
+        ByteBuffer input = bytes("GET /first HTTP/1.1\r\n\r\nGET /second HTTP/1.1\r\n\r\n");
+        assertEquals("GET /first HTTP/1.1", parser.parse(input).getStartLine());
+        assertEquals("GET /second HTTP/1.1", parser.parse(input).getStartLine());
+        assertThat(input.hasRemaining()).isFalse();
+    }
+
+    @Test
+    void shouldLeaveBodyInBufferWhenParsingHead() throws IOException {
+        ByteBuffer input = bytes("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nHello");
+        HttpMessage head = parser.parseHead(input);
+        assertEquals("HTTP/1.1 200 OK", head.getStartLine());
+        assertNull(head.getBody());
+        assertEquals("Hello", StandardCharsets.UTF_8.decode(input).toString());
+    }
+
+    @Test
+    void shouldReadLargeBodyArrivingInPieces() throws IOException {
+        String body = "taskName=" + "x".repeat(100_000);
+        assertNull(parser.parse(bytes("POST /api/newTask HTTP/1.1\r\nContent-Length: " + body.length() + "\r\n\r\n")));
+        HttpMessage message = null;
+        for (int i = 0; i < body.length(); i += 1000) {
+            message = parser.parse(bytes(body.substring(i, Math.min(body.length(), i + 1000))));
+        }
+        assertEquals(body, message.getBody());
+        assertEquals(body.length(), message.getContent().length);
+    }
+
+    @Test
+    void shouldMatchHeaderNamesCaseInsensitively() throws IOException {
+        HttpMessage message = parser.parse(bytes("POST /api/newTask HTTP/1.1\r\ncontent-length: 4\r\n\r\nabcd"));
+        assertEquals("abcd", message.getBody());
+        assertEquals("4", message.getHeaders().get("Content-Length"));
+        assertEquals("4", message.getHeaders().get("CONTENT-LENGTH"));
+    }
+
+    @Test
+    void shouldDecodeUtf8() throws IOException {
+        byte[] body = "taskName=Ærlig Øystein på Å".getBytes(StandardCharsets.UTF_8);
+        HttpMessage message = parser.parse(bytes("POST /api/newTask HTTP/1.1\r\nContent-Length: " + body.length + "\r\n\r\n"));
+        assertNull(message);
+        message = parser.parse(ByteBuffer.wrap(body));
+        assertEquals("taskName=Ærlig Øystein på Å", message.getBody());
+    }
+
+    @Test
+    void shouldDecodeChunkedBody() throws IOException {
+        ByteBuffer input = bytes("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n" +
+                "5\r\nHello\r\n" +
+                "7;name=value\r\n, World\r\n" +
+                "0\r\nX-Trailer: ignored\r\n\r\n" +
+                "HTTP/1.1 200 OK\r\nContent-Length: 4\r\n\r\nnext");
+        assertNull(parser.parse(bytes("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n3\r\nab")));
+        assertEquals("abc", parser.parse(bytes("c\r\n0\r\n\r\n")).getBody());
+
+        assertEquals("Hello, World", parser.parse(input).getBody());
+        assertEquals("next", parser.parse(input).getBody());
+    }
+
+    @Test
+    void shouldRejectTooLargeChunkedBody() {
+        HttpMessageParser limitedParser = new HttpMessageParser(1024, 10);
+        assertThatThrownBy(() -> limitedParser.parse(bytes("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n" +
+                "8\r\n12345678\r\n8\r\n")))
+                .isInstanceOf(HttpParseException.class)
+                .hasMessage("413 Payload Too Large");
+    }
+
+    @Test
+    void shouldRejectTooLargeHeaders() {
+        HttpMessageParser limitedParser = new HttpMessageParser(64, 1024);
+        assertThatThrownBy(() -> limitedParser.parse(bytes("GET / HTTP/1.1\r\nCookie: " + "x".repeat(100) + "\r\n\r\n")))
+                .isInstanceOf(HttpParseException.class)
+                .extracting(e -> ((HttpParseException) e).getStatusCode())
+                .isEqualTo(431);
+    }
+
+    @Test
+    void shouldRejectTooLargeBody() {
+        HttpMessageParser limitedParser = new HttpMessageParser(1024, 10);
+        assertThatThrownBy(() -> limitedParser.parse(bytes("POST / HTTP/1.1\r\nContent-Length: 11\r\n\r\n")))
+                .isInstanceOf(HttpParseException.class)
+                .extracting(e -> ((HttpParseException) e).getStatusCode())
+                .isEqualTo(413);
+    }
+
+    @Test
+    void shouldKeepBulkBodyUndecoded() throws IOException {
+        HttpMessageParser importParser = new HttpMessageParser(1024, 10).allowLargerBody("/import", 100);
+        HttpMessage message = importParser.parse(bytes("POST /import HTTP/1.1\r\nContent-Length: 13\r\n\r\nname=100%+bad"));
+        assertNull(message.getBody());
+        assertEquals("name=100%+bad", new String(message.getContent(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void shouldRejectMalformedStartLine() {
+        for (String startLine : new String[]{"FOO", "GET /echo", "GET  HTTP/1.1", "GET /echo HTTP/1.1 extra", "GET /echo FTP/1.0", "HTTP/1.1"}) {
+            assertThatThrownBy(() -> new HttpMessageParser().parse(bytes(startLine + "\r\n\r\n")))
+                    .as(startLine)
+                    .isInstanceOf(HttpParseException.class)
+                    .hasMessage("400 Bad Request");
+        }
+    }
+
+    @Test
+    void shouldRejectDuplicateContentLength() {
+        assertThatThrownBy(() -> parser.parse(bytes("POST /api/newTask HTTP/1.1\r\nContent-Length: 4\r\ncontent-length: 10\r\n\r\nabcd")))
+                .isInstanceOf(HttpParseException.class)
+                .hasMessage("400 Bad Request");
+    }
+
+    @Test
+    void shouldReadMessagesFromStreamInBlocks() throws IOException {
+        String requests = "GET /first HTTP/1.1\r\n\r\nPOST /second HTTP/1.1\r\nContent-Length: 5\r\n\r\nhello";
+        HttpMessageReader reader = new HttpMessageReader(new ByteArrayInputStream(requests.getBytes()));
+        assertEquals("GET /first HTTP/1.1", reader.readMessage().getStartLine());
+        assertEquals("hello", reader.readMessage().getBody());
+        assertNull(reader.readMessage());
+    }
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
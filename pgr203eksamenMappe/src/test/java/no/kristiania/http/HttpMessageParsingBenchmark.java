@@ -0,0 +1,102 @@
+package no.kristiania.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+// Compares the old byte-at-a-time request parsing with HttpMessageReader over a real loopback socket.
+// Run main() from the IDE; it is not part of the test suite
+public class HttpMessageParsingBenchmark {
+
+    private static final String BODY = "first_name=Even&last_name=Larsen&email_address=even@even.no";
+
+    private static final String REQUEST = "POST /api/newWorker HTTP/1.1\r\n" +
+            "Host: localhost:8080\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/86.0 Safari/537.36\r\n" +
+            "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+            "Accept-Language: nb-NO,nb;q=0.9,no;q=0.8,en;q=0.7\r\n" +
+            "Content-Type: application/x-www-form-urlencoded\r\n" +
+            "Content-Length: " + BODY.length() + "\r\n" +
+            "\r\n" +
+            BODY;
+
+    private static final int REQUESTS = 200_000;
+
+    public static void main(String[] args) throws Exception {
+        for (int round = 0; round < 3; round++) {
+            double before = measure(HttpMessageParsingBenchmark::readLegacy);
+            double after = measure(input -> {
+                HttpMessageReader reader = new HttpMessageReader(input);
+                for (int i = 0; i < REQUESTS; i++) {
+                    reader.readMessage();
+                }
+            });
+            System.out.printf("round %d: byte-at-a-time %,.0f requests/sec, buffered %,.0f requests/sec (%.1fx)%n",
+                    round, before, after, after / before);
+        }
+    }
+
+    private static double measure(RequestConsumer consumer) throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            Thread sender = new Thread(() -> {
+                try (Socket socket = new Socket("localhost", serverSocket.getLocalPort())) {
+                    OutputStream output = socket.getOutputStream();
+                    byte[] request = REQUEST.getBytes();
+                    for (int i = 0; i < REQUESTS; i++) {
+                        output.write(request);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            sender.start();
+            try (Socket socket = serverSocket.accept()) {
+                long start = System.nanoTime();
+                consumer.consume(socket.getInputStream());
+                long elapsed = System.nanoTime() - start;
+                sender.join();
+                return REQUESTS / (elapsed / 1_000_000_000.0);
+            }
+        }
+    }
+
+    interface RequestConsumer {
+        void consume(InputStream input) throws IOException;
+    }
+
+    // The parsing HttpMessage used before HttpMessageReader: one read() call for each byte
+    private static void readLegacy(InputStream input) throws IOException {
+        for (int i = 0; i < REQUESTS; i++) {
+            readLine(input);
+            Map<String, String> headers = new HashMap<>();
+            String headerLine;
+            while (!(headerLine = readLine(input)).isEmpty()) {
+                int colonPos = headerLine.indexOf(':');
+                headers.put(headerLine.substring(0, colonPos), headerLine.substring(colonPos + 1).trim());
+            }
+            int contentLength = Integer.parseInt(headers.get("Content-Length"));
+            StringBuilder body = new StringBuilder();
+            for (int j = 0; j < contentLength; j++) {
+                body.append((char) input.read());
+            }
+            HttpMessage.decodeValue(body.toString());
+        }
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = input.read()) != -1) {
+            if (c == '\r') {
+                input.read();
+                break;
+            }
+            line.append((char) c);
+        }
+        return line.toString();
+    }
+}
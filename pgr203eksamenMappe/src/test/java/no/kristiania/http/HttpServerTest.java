@@ -2,16 +2,28 @@ package no.kristiania.http;
 
 import no.kristiania.database.Worker;
 import no.kristiania.database.WorkerDao;
+import no.kristiania.database.WorkerTaskDao;
 import org.flywaydb.core.Flyway;
 import org.h2.jdbcx.JdbcDataSource;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
@@ -85,6 +97,57 @@ class HttpServerTest {
         assertEquals(404, client.getStatusCode());
     }
 
+    @Test
+    void shouldAnswerUnknownRoutesAndMethods() throws IOException {
+        assertEquals(404, new HttpClient("localhost", server.getPort(), "/api/nothingHere", "POST", "name=value").getStatusCode());
+        HttpClient wrongMethod = new HttpClient("localhost", server.getPort(), "/api/workers", "POST", "name=value");
+        assertEquals(405, wrongMethod.getStatusCode());
+        assertEquals("GET, HEAD", wrongMethod.getResponseHeader("Allow"));
+    }
+
+    @Test
+    void shouldCountRequestsByRouteAndStatus() throws IOException {
+        new HttpClient("localhost", server.getPort(), "/api/workers/999999");
+        new HttpClient("localhost", server.getPort(), "/api/workers/999998");
+        new HttpClient("localhost", server.getPort(), "/echo?status=201");
+        new HttpClient("localhost", server.getPort(), "/index.html");
+        // The server records a request just after the response is written
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getMetrics().getCount(RequestMetrics.STATIC_ROUTE, 200) == 0 && System.currentTimeMillis() < deadline) {
+            Thread.onSpinWait();
+        }
+
+        assertEquals(2, server.getMetrics().getCount("/api/workers/{id}", 404));
+        assertEquals(1, server.getMetrics().getCount("/echo", 201));
+        assertEquals(1, server.getMetrics().getCount(RequestMetrics.STATIC_ROUTE, 200));
+        assertEquals(2, server.getMetrics().getLatency("/api/workers/{id}").getCount());
+
+        HttpClient client = new HttpClient("localhost", server.getPort(), "/admin/metrics");
+        assertThat(client.getResponseHeader("Content-Type")).startsWith("text/plain; version=0.0.4");
+        assertThat(client.getResponseBody())
+                .contains("# TYPE http_request_duration_seconds histogram")
+                .contains("http_requests_total{route=\"/api/workers/{id}\",status=\"404\"} 2")
+                .contains("http_request_duration_seconds_count{route=\"/echo\"} 1")
+                .contains("http_request_duration_seconds_bucket{route=\"/echo\",le=\"+Inf\"} 1")
+                .contains("http_request_duration_quantile_seconds{route=\"/echo\",quantile=\"0.99\"}")
+                .contains("http_request_stage_duration_seconds_count{route=\"/echo\",stage=\"parse\"} 1");
+    }
+
+    @Test
+    void shouldReturnOneWorkerById() throws IOException, SQLException {
+        Worker worker = new Worker();
+        worker.setFirstName("Single");
+        worker.setLastName("Larsen");
+        worker.setEmail("single@even.no");
+        new WorkerDao(dataSource).insert(worker);
+
+        HttpClient client = new HttpClient("localhost", server.getPort(), "/api/workers/" + worker.getId());
+        assertEquals(200, client.getStatusCode());
+        assertThat(client.getResponseBody()).isEqualTo("<ul><li>Name: Single Larsen</li><li>Email: single@even.no</li></ul>");
+        assertEquals(404, new HttpClient("localhost", server.getPort(), "/api/workers/999999").getStatusCode());
+        assertEquals(400, new HttpClient("localhost", server.getPort(), "/api/workers/abc").getStatusCode());
+    }
+
     @Test
     void shouldPostNewWorkers() throws IOException, SQLException {
         String requestBody = "first_name=Even&last_name=Larsen&email_address=even@even.no";
@@ -120,4 +183,545 @@ class HttpServerTest {
         assertThat(getClient.getResponseBody()).contains("<li>urgent</li>");
     }
 
-}
\ No newline at end of file
+    @Test
+    void shouldShowTasksWithTheirWorkers() throws IOException, SQLException {
+        new HttpClient("localhost", server.getPort(), "/api/newTask", "POST", "taskName=overview");
+        new HttpClient("localhost", server.getPort(), "/api/newWorker", "POST", "first_name=Over&last_name=View&email_address=over@even.no");
+        Worker worker = server.getFirstName().stream().filter(w -> w.getFirstName().equals("Over")).findFirst().orElseThrow();
+        int taskId = new WorkerTaskDao(dataSource).list().stream()
+                .filter(task -> task.getName().equals("overview")).findFirst().orElseThrow().getId();
+        new HttpClient("localhost", server.getPort(), "/api/updateWorker", "POST", "workerId=" + worker.getId() + "&taskId=" + taskId);
+
+        HttpClient client = new HttpClient("localhost", server.getPort(), "/api/taskOverview");
+        assertEquals(200, client.getStatusCode());
+        assertThat(client.getResponseBody()).contains("<li>overview (1 workers)<ul><li>Over View</li></ul></li>");
+    }
+
+    @Test
+    void shouldReturnWorkersOnePageAtATime() throws IOException, SQLException {
+        WorkerDao workerDao = new WorkerDao(dataSource);
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Worker worker = new Worker();
+            worker.setFirstName("Page" + i);
+            worker.setLastName("Larsen");
+            worker.setEmail("page" + i + "@even.no");
+            workerDao.insert(worker);
+            ids.add(worker.getId());
+        }
+
+        int after = ids.get(0) - 1;
+        HttpClient firstPage = new HttpClient("localhost", server.getPort(), "/api/workers?after=" + after + "&limit=2");
+        assertThat(firstPage.getResponseBody())
+                .contains("<li>Name: Page0 Larsen</li>", "<li>Name: Page1 Larsen</li>")
+                .doesNotContain("Page2");
+        assertEquals("</api/workers?after=" + ids.get(1) + "&limit=2>; rel=\"next\"", firstPage.getResponseHeader("Link"));
+
+        HttpClient lastPage = new HttpClient("localhost", server.getPort(), "/api/workers?after=" + ids.get(1) + "&limit=2");
+        assertThat(lastPage.getResponseBody()).contains("<li>Name: Page2 Larsen</li>");
+        assertNull(lastPage.getResponseHeader("Link"));
+
+        assertEquals(400, new HttpClient("localhost", server.getPort(), "/api/tasks?limit=100000").getStatusCode());
+        assertEquals(400, new HttpClient("localhost", server.getPort(), "/api/workers?after=abc").getStatusCode());
+    }
+
+    @Test
+    void shouldStreamFullListsInChunks() throws IOException, SQLException {
+        WorkerDao workerDao = new WorkerDao(dataSource);
+        for (int i = 0; i < 300; i++) {
+            Worker worker = new Worker();
+            worker.setFirstName("Chunk" + i);
+            worker.setLastName("Larsen");
+            worker.setEmail("chunk" + i + "@even.no");
+            workerDao.insert(worker);
+        }
+
+        HttpClient client = new HttpClient("localhost", server.getPort(), "/api/workers");
+        assertEquals("chunked", client.getResponseHeader("Transfer-Encoding"));
+        assertNull(client.getResponseHeader("Content-Length"));
+        assertThat(client.getResponseBody())
+                .startsWith("<ul>")
+                .contains("<li>Name: Chunk0 Larsen</li>", "<li>Name: Chunk299 Larsen</li>")
+                .endsWith("</ul>");
+
+        // The connection can be used for the next request after the last chunk
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            socket.getOutputStream().write(("GET /api/tasks HTTP/1.1\r\n\r\nGET /echo?body=after HTTP/1.1\r\n\r\n").getBytes());
+            HttpMessageReader reader = new HttpMessageReader(socket.getInputStream());
+            assertEquals("chunked", reader.readMessage().getHeaders().get("Transfer-Encoding"));
+            assertEquals("after", reader.readMessage().getBody());
+        }
+    }
+
+    @Test
+    void shouldImportWorkersFromCsvAndFormLines() throws IOException, SQLException {
+        String csv = "first_name,last_name,email_address\r\n" +
+                "Import,Larsen,import1@even.no\r\n" +
+                "\"Import, Jr\",\"O\"\"Neil\",import2@even.no\r\n" +
+                "Import,Larsen,not-an-email\r\n";
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            byte[] body = csv.getBytes(StandardCharsets.UTF_8);
+            socket.getOutputStream().write(("POST /api/workers/import HTTP/1.1\r\n" +
+                    "Content-Type: text/csv\r\n" +
+                    "Content-Length: " + body.length + "\r\n\r\n").getBytes());
+            socket.getOutputStream().write(body);
+            HttpMessage response = new HttpMessageReader(socket.getInputStream()).readMessage();
+            assertEquals("HTTP/1.1 200 OK", response.getStartLine());
+            assertThat(response.getBody()).startsWith("imported 2").contains("line 4: email_address");
+        }
+
+        String form = "first_name=Form&last_name=Larsen%26S%C3%B8nn&email_address=form@even.no\n" +
+                "first_name=Form&last_name=Larsen\n" +
+                "first_name=Form&last_name=Larsen%ZZ&email_address=bad@even.no\n";
+        HttpClient client = new HttpClient("localhost", server.getPort(), "/api/workers/import", "POST", form);
+        assertEquals(200, client.getStatusCode());
+        assertThat(client.getResponseBody()).startsWith("imported 1")
+                .contains("line 2: email_address")
+                .contains("line 3: bad escape in last_name=Larsen%ZZ");
+
+        assertThat(server.getFirstName())
+                .extracting(Worker::getLastName)
+                .contains("Larsen", "O\"Neil", "Larsen&Sønn");
+    }
+
+    @Test
+    void shouldServeOtherClientsWhileOneIsStalled() throws IOException {
+        // This client sends half a request and stops, which blocks one worker
+        try (Socket stalledClient = new Socket("localhost", server.getPort())) {
+            stalledClient.getOutputStream().write("GET /echo?body=late HT".getBytes());
+            stalledClient.getOutputStream().flush();
+            HttpClient client = new HttpClient("localhost", server.getPort(), "/echo?body=HelloWorld");
+            assertEquals("HelloWorld", client.getResponseBody());
+
+            // The stalled request is still answered when the rest of it arrives
+            stalledClient.getOutputStream().write("TP/1.1\r\nHost: localhost\r\n\r\n".getBytes());
+            assertEquals("late", new HttpMessageReader(stalledClient.getInputStream()).readMessage().getBody());
+        }
+    }
+
+    @Test
+    void shouldHandleConcurrentRequestsWithThreadPool() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setExecutor("pool");
+        config.setWorkerThreads(4);
+        HttpServer poolServer = new HttpServer(0, dataSource, config);
+
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> responses = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                responses.add(clients.submit(() -> new HttpClient("localhost", poolServer.getPort(), "/api/workers").getStatusCode()));
+            }
+            for (Future<Integer> response : responses) {
+                assertEquals(200, response.get());
+            }
+        } finally {
+            clients.shutdown();
+        }
+    }
+
+    @Test
+    void shouldServeRequestsWithNioEngine() throws IOException, SQLException {
+        ServerConfig config = new ServerConfig();
+        config.setEngine("nio");
+        config.setEventLoops(2);
+        HttpServer nioServer = new HttpServer(0, dataSource, config);
+
+        assertEquals("HelloWorld", new HttpClient("localhost", nioServer.getPort(), "/echo?body=HelloWorld").getResponseBody());
+
+        String requestBody = "first_name=Nora&last_name=Nio&email_address=nora@nio.no";
+        HttpClient postClient = new HttpClient("localhost", nioServer.getPort(), "/api/newWorker", "POST", requestBody);
+        assertEquals(200, postClient.getStatusCode());
+        assertThat(new HttpClient("localhost", nioServer.getPort(), "/api/workers").getResponseBody())
+                .contains("<li>Name: Nora Nio</li>");
+    }
+
+    @Test
+    void shouldNotTieUpThreadsWithIdleNioClients() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setEngine("nio");
+        config.setEventLoops(1);
+        config.setWorkerThreads(1);
+        HttpServer nioServer = new HttpServer(0, dataSource, config);
+
+        List<Socket> idleClients = new ArrayList<>();
+        try {
+            for (int i = 0; i < 100; i++) {
+                Socket idleClient = new Socket("localhost", nioServer.getPort());
+                idleClient.getOutputStream().write("GET /echo HTTP/1.1\r\nHost: loc".getBytes());
+                idleClients.add(idleClient);
+            }
+            HttpClient client = new HttpClient("localhost", nioServer.getPort(), "/echo?body=StillHere");
+            assertEquals("StillHere", client.getResponseBody());
+        } finally {
+            for (Socket idleClient : idleClients) {
+                idleClient.close();
+            }
+        }
+    }
+
+    @Test
+    void shouldAnswerPipelinedRequestsInOrderOnOneConnection() throws IOException {
+        assertPipelinedRequestsAreAnswered(server);
+    }
+
+    @Test
+    void shouldAnswerPipelinedRequestsInOrderWithNioEngine() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setEngine("nio");
+        assertPipelinedRequestsAreAnswered(new HttpServer(0, dataSource, config));
+    }
+
+    private void assertPipelinedRequestsAreAnswered(HttpServer server) throws IOException {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            socket.getOutputStream().write(("GET /echo?body=first HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+                    "GET /echo?body=second HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes());
+            HttpMessageReader reader = new HttpMessageReader(socket.getInputStream());
+            assertEquals("first", reader.readMessage().getBody());
+            assertEquals("second", reader.readMessage().getBody());
+
+            socket.getOutputStream().write("GET /echo?body=third HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes());
+            assertEquals("third", reader.readMessage().getBody());
+        }
+    }
+
+    @Test
+    void shouldAnswerPipelinedHeadWithoutBody() throws IOException {
+        assertHeadIsAnsweredWithoutBody(server);
+    }
+
+    @Test
+    void shouldAnswerPipelinedHeadWithoutBodyWithNioEngine() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setEngine("nio");
+        assertHeadIsAnsweredWithoutBody(new HttpServer(0, dataSource, config));
+    }
+
+    private void assertHeadIsAnsweredWithoutBody(HttpServer server) throws IOException {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            socket.getOutputStream().write(("HEAD /index.html HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+                    "HEAD /api/tasks HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+                    "GET /index.html HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes());
+            HttpMessageReader reader = new HttpMessageReader(socket.getInputStream());
+
+            HttpMessage head = reader.readHead();
+            assertEquals("HTTP/1.1 200 OK", head.getStartLine());
+            HttpMessage chunkedHead = reader.readHead();
+            assertEquals("HTTP/1.1 200 OK", chunkedHead.getStartLine());
+            assertEquals("chunked", chunkedHead.getHeaders().get("Transfer-Encoding"));
+
+            // If a body had been sent after a HEAD response, it would be read here instead of the GET response
+            HttpMessage get = reader.readMessage();
+            assertEquals("HTTP/1.1 200 OK", get.getStartLine());
+            assertEquals(head.getHeaders().get("Content-Length"), get.getHeaders().get("Content-Length"));
+            assertEquals("<h2>Hello World</h2>", get.getBody());
+        }
+    }
+
+    @Test
+    void shouldCloseConnectionAfterMaxRequests() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setMaxKeepAliveRequests(2);
+        HttpServer limitedServer = new HttpServer(0, dataSource, config);
+
+        try (Socket socket = new Socket("localhost", limitedServer.getPort())) {
+            HttpMessageReader reader = new HttpMessageReader(socket.getInputStream());
+            socket.getOutputStream().write("GET /echo HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes());
+            HttpMessage first = reader.readMessage();
+            assertEquals("HTTP/1.1 200 OK", first.getStartLine());
+            assertThat(first.getHeaders()).doesNotContainKey("Connection");
+            socket.getOutputStream().write("GET /echo HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes());
+            // The client is told that this is the last response on the connection
+            assertEquals("close", reader.readMessage().getHeaders().get("Connection"));
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    void shouldRejectRequestLineWithoutPath() throws IOException {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            socket.getOutputStream().write("FOO\r\nHost: localhost\r\n\r\n".getBytes());
+            HttpMessage response = new HttpMessageReader(socket.getInputStream()).readMessage();
+            assertEquals("HTTP/1.1 400 Bad Request", response.getStartLine());
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    void shouldStayResponsiveWhenClientsStallAfterHeaders() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setEngine("nio");
+        config.setMaxImportSize(32 * 1024 * 1024);
+        HttpServer nioServer = new HttpServer(0, dataSource, config);
+
+        // Each promises a large body and sends none of it. The server must not set the whole body aside up front
+        List<Socket> stalled = new ArrayList<>();
+        try {
+            for (int i = 0; i < 200; i++) {
+                Socket socket = new Socket("localhost", nioServer.getPort());
+                stalled.add(socket);
+                socket.getOutputStream().write(("POST /api/workers/import HTTP/1.1\r\nContent-Length: 30000000\r\n\r\n").getBytes());
+            }
+            HttpClient client = new HttpClient("localhost", nioServer.getPort(), "/echo?body=alive");
+            assertEquals("alive", client.getResponseBody());
+        } finally {
+            for (Socket socket : stalled) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    void shouldAnswerHttp10KeepAlive() throws IOException {
+        assertHttp10KeepAlive(server);
+    }
+
+    @Test
+    void shouldAnswerHttp10KeepAliveWithNioEngine() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setEngine("nio");
+        assertHttp10KeepAlive(new HttpServer(0, dataSource, config));
+    }
+
+    private void assertHttp10KeepAlive(HttpServer server) throws IOException {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            HttpMessageReader reader = new HttpMessageReader(socket.getInputStream());
+            socket.getOutputStream().write("GET /echo?body=first HTTP/1.0\r\nConnection: keep-alive\r\n\r\n".getBytes());
+            HttpMessage first = reader.readMessage();
+            assertEquals("first", first.getBody());
+            assertEquals("keep-alive", first.getHeaders().get("Connection"));
+
+            // Without keep-alive, a HTTP/1.0 connection is closed after the response
+            socket.getOutputStream().write("GET /echo?body=second HTTP/1.0\r\n\r\n".getBytes());
+            HttpMessage second = reader.readMessage();
+            assertEquals("second", second.getBody());
+            assertEquals("close", second.getHeaders().get("Connection"));
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    void shouldCloseIdleConnections() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setKeepAliveTimeout(100);
+        HttpServer impatientServer = new HttpServer(0, dataSource, config);
+
+        try (Socket socket = new Socket("localhost", impatientServer.getPort())) {
+            socket.getOutputStream().write("GET /echo HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes());
+            new HttpMessageReader(socket.getInputStream()).readMessage();
+            socket.setSoTimeout(5000);
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    void shouldGiveUpIdleConnectionWhenOthersAreWaiting() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setWorkerThreads(1);
+        config.setKeepAliveTimeout(60_000);
+        HttpServer busyServer = new HttpServer(0, dataSource, config);
+
+        try (Socket idle = new Socket("localhost", busyServer.getPort())) {
+            idle.getOutputStream().write("GET /echo?body=first HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes());
+            HttpMessageReader idleReader = new HttpMessageReader(idle.getInputStream());
+            assertEquals("first", idleReader.readMessage().getBody());
+
+            // Now the only worker is waiting for the idle connection's next request
+            try (Socket waiting = new Socket("localhost", busyServer.getPort())) {
+                waiting.setSoTimeout(5000);
+                waiting.getOutputStream().write("GET /echo?body=second HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes());
+                assertEquals("second", new HttpMessageReader(waiting.getInputStream()).readMessage().getBody());
+            }
+            idle.setSoTimeout(5000);
+            assertNull(idleReader.readMessage());
+        }
+    }
+
+    @Test
+    void shouldRejectTooLargeRequestBody() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setMaxBodySize(10);
+        HttpServer limitedServer = new HttpServer(0, dataSource, config);
+
+        HttpClient client = new HttpClient("localhost", limitedServer.getPort(), "/api/newTask", "POST", "taskName=far-too-long-for-the-limit");
+        assertEquals(413, client.getStatusCode());
+    }
+
+    @Test
+    void shouldCloseConnectionWhenClientAsksForIt() throws IOException {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            socket.getOutputStream().write("GET /echo HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes());
+            new HttpMessageReader(socket.getInputStream()).readMessage();
+            socket.setSoTimeout(5000);
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    void shouldCountContentLengthInBytes() throws IOException, SQLException {
+        Worker worker = new Worker();
+        worker.setFirstName("Øystein");
+        worker.setLastName("Ødegård");
+        worker.setEmail("oystein@even.no");
+        new WorkerDao(dataSource).insert(worker);
+
+        // A page has a Content-Length, the whole list is chunked
+        HttpClient client = new HttpClient("localhost", server.getPort(), "/api/workers?after=" + (worker.getId() - 1) + "&limit=1");
+        assertThat(client.getResponseBody()).contains("<li>Name: Øystein Ødegård</li>");
+        assertEquals(client.getResponseBody().getBytes(StandardCharsets.UTF_8).length,
+                Integer.parseInt(client.getResponseHeader("Content-Length")));
+    }
+
+    @Test
+    void shouldServeWorkerListFromCache() throws IOException, SQLException {
+        ServerConfig config = new ServerConfig();
+        config.setCacheTtl(60_000);
+        config.setCacheMaxSize(100_000);
+        HttpServer cachingServer = new HttpServer(0, dataSource, config);
+        Worker first = new Worker();
+        first.setFirstName("Cached");
+        first.setLastName("First");
+        first.setEmail("first@cache.no");
+        new WorkerDao(dataSource).insert(first);
+
+        // The streamed list fills the cache
+        HttpClient client = new HttpClient("localhost", cachingServer.getPort(), "/api/workers");
+        assertThat(client.getResponseBody()).contains("<li>Name: Cached First</li>");
+
+        // Written behind the server's back, so it is not in the cached list
+        Worker second = new Worker();
+        second.setFirstName("Cached");
+        second.setLastName("Second");
+        second.setEmail("second@cache.no");
+        new WorkerDao(dataSource).insert(second);
+        client = new HttpClient("localhost", cachingServer.getPort(), "/api/workers");
+        assertThat(client.getResponseBody()).contains("<li>Name: Cached First</li>").doesNotContain("Cached Second");
+
+        client = new HttpClient("localhost", cachingServer.getPort(), "/api/workers?after=" + (first.getId() - 1) + "&limit=1");
+        assertThat(client.getResponseBody()).isEqualTo("<ul><li>Name: Cached First</li><li>Email: first@cache.no</li></ul>");
+        // Pages come from the cached list too: the second worker isn't in it, so there is no next page
+        assertThat(client.getResponseHeader("Link")).isNull();
+    }
+
+    @Test
+    void shouldReturnNotModifiedForKnownEtag() throws IOException {
+        HttpClient client = new HttpClient("localhost", server.getPort(), "/newWorker.html");
+        String etag = client.getResponseHeader("ETag");
+        assertThat(etag).startsWith("\"");
+        assertEquals("no-cache", client.getResponseHeader("Cache-Control"));
+
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            socket.getOutputStream().write(("GET /newWorker.html HTTP/1.1\r\n" +
+                    "If-None-Match: " + etag + "\r\n" +
+                    "\r\n").getBytes());
+            HttpMessage response = new HttpMessageReader(socket.getInputStream()).readMessage();
+            assertEquals("HTTP/1.1 304 Not Modified", response.getStartLine());
+            assertEquals(etag, response.getHeaders().get("ETag"));
+            assertNull(response.getBody());
+        }
+    }
+
+    @Test
+    void shouldStreamFilesFromContentRoot(@TempDir Path contentRoot) throws IOException {
+        assertFilesAreStreamedFromContentRoot(contentRoot, "blocking");
+    }
+
+    @Test
+    void shouldStreamFilesFromContentRootWithNioEngine(@TempDir Path contentRoot) throws IOException {
+        assertFilesAreStreamedFromContentRoot(contentRoot, "nio");
+    }
+
+    private void assertFilesAreStreamedFromContentRoot(Path contentRoot, String engine) throws IOException {
+        String fileContent = "0123456789".repeat(20_000);
+        Files.writeString(contentRoot.resolve("large.txt"), fileContent);
+        ServerConfig config = new ServerConfig();
+        config.setEngine(engine);
+        config.setContentRoot(contentRoot.toString());
+        HttpServer fileServer = new HttpServer(0, dataSource, config);
+
+        HttpClient client = new HttpClient("localhost", fileServer.getPort(), "/large.txt");
+        assertEquals(fileContent, client.getResponseBody());
+        assertEquals("bytes", client.getResponseHeader("Accept-Ranges"));
+        String etag = client.getResponseHeader("ETag");
+
+        try (Socket socket = new Socket("localhost", fileServer.getPort())) {
+            socket.getOutputStream().write(("GET /large.txt HTTP/1.1\r\nIf-None-Match: \"other\", W/" + etag + "\r\n\r\n" +
+                    "GET /large.txt HTTP/1.1\r\nRange: bytes=100000-100004\r\n\r\n" +
+                    "GET /large.txt HTTP/1.1\r\nRange: bytes=-3\r\n\r\n" +
+                    "GET /large.txt HTTP/1.1\r\nRange: bytes=500-100\r\n\r\n" +
+                    "GET /large.txt HTTP/1.1\r\nRange: bytes=300000-\r\n\r\n").getBytes());
+            HttpMessageReader reader = new HttpMessageReader(socket.getInputStream());
+
+            assertEquals("HTTP/1.1 304 Not Modified", reader.readMessage().getStartLine());
+
+            HttpMessage partial = reader.readMessage();
+            assertEquals("HTTP/1.1 206 Partial Content", partial.getStartLine());
+            assertEquals("bytes 100000-100004/200000", partial.getHeaders().get("Content-Range"));
+            assertEquals("01234", partial.getBody());
+
+            assertEquals("789", reader.readMessage().getBody());
+
+            HttpMessage ignored = reader.readMessage();
+            assertEquals("HTTP/1.1 200 OK", ignored.getStartLine());
+            assertEquals(fileContent, ignored.getBody());
+
+            HttpMessage unsatisfiable = reader.readMessage();
+            assertEquals("HTTP/1.1 416 Range Not Satisfiable", unsatisfiable.getStartLine());
+            assertEquals("bytes */200000", unsatisfiable.getHeaders().get("Content-Range"));
+        }
+    }
+
+    @Test
+    void shouldCompressResponsesForClientsThatAcceptGzip() throws IOException, SQLException {
+        WorkerDao workerDao = new WorkerDao(dataSource);
+        for (int i = 0; i < 50; i++) {
+            Worker worker = new Worker();
+            worker.setFirstName("Even" + i);
+            worker.setLastName("Larsen");
+            worker.setEmail("even" + i + "@even.no");
+            workerDao.insert(worker);
+        }
+
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            socket.getOutputStream().write(("GET /api/workers HTTP/1.1\r\nAccept-Encoding: deflate;q=0.5, gzip\r\n\r\n" +
+                    "GET /api/workers HTTP/1.1\r\n\r\n" +
+                    "GET /admin/compression HTTP/1.1\r\n\r\n").getBytes());
+            HttpMessageReader reader = new HttpMessageReader(socket.getInputStream());
+
+            HttpMessage compressed = reader.readMessage();
+            assertEquals("gzip", compressed.getHeaders().get("Content-Encoding"));
+            assertEquals("Accept-Encoding", compressed.getHeaders().get("Vary"));
+            String body = new String(new GZIPInputStream(new ByteArrayInputStream(compressed.getContent())).readAllBytes(), StandardCharsets.UTF_8);
+            assertThat(body).contains("<li>Name: Even49 Larsen</li>");
+
+            HttpMessage uncompressed = reader.readMessage();
+            assertNull(uncompressed.getHeaders().get("Content-Encoding"));
+            assertEquals(body, uncompressed.getBody());
+
+            assertThat(reader.readMessage().getBody())
+                    .contains("/api/workers 1 " + body.getBytes(StandardCharsets.UTF_8).length + " " + compressed.getContent().length);
+        }
+    }
+
+    @Test
+    void shouldCompressStaticResourcesWithTheirOwnEtag() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setCompressionMinSize(100);
+        HttpServer compressingServer = new HttpServer(0, dataSource, config);
+        String etag = new HttpClient("localhost", compressingServer.getPort(), "/newWorker.html").getResponseHeader("ETag");
+
+        try (Socket socket = new Socket("localhost", compressingServer.getPort())) {
+            socket.getOutputStream().write(("GET /newWorker.html HTTP/1.1\r\nAccept-Encoding: gzip\r\n\r\n").getBytes());
+            HttpMessageReader reader = new HttpMessageReader(socket.getInputStream());
+            HttpMessage compressed = reader.readMessage();
+            assertEquals("gzip", compressed.getHeaders().get("Content-Encoding"));
+            String compressedEtag = compressed.getHeaders().get("ETag");
+            assertNotEquals(etag, compressedEtag);
+
+            socket.getOutputStream().write(("GET /newWorker.html HTTP/1.1\r\nAccept-Encoding: gzip\r\nIf-None-Match: " + compressedEtag + "\r\n\r\n" +
+                    "GET /newWorker.html HTTP/1.1\r\nIf-None-Match: " + compressedEtag + "\r\n\r\n").getBytes());
+            assertEquals("HTTP/1.1 304 Not Modified", reader.readMessage().getStartLine());
+            assertEquals("HTTP/1.1 200 OK", reader.readMessage().getStartLine());
+        }
+    }
+}
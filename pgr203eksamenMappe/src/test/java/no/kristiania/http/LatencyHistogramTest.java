@@ -0,0 +1,51 @@
+package no.kristiania.http;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LatencyHistogramTest {
+
+    @Test
+    void shouldPutEveryValueInTheBucketThatCoversIt() {
+        for (long value : new long[]{0, 1, 15, 16, 17, 31, 32, 33, 1000, 1023, 1024, 123_456_789L, 1L << 39}) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertThat(LatencyHistogram.lowestValue(index)).isLessThanOrEqualTo(value);
+            assertThat(LatencyHistogram.highestValue(index)).isGreaterThanOrEqualTo(value);
+            // Never wider than 1/16 of the values in it
+            assertThat(LatencyHistogram.highestValue(index) - LatencyHistogram.lowestValue(index)).isLessThanOrEqualTo(Math.max(0, value / 16));
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    void shouldFindPercentilesWithinSixPercent() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(0.99));
+        for (int micros = 1; micros <= 10_000; micros++) {
+            histogram.record(micros);
+        }
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(10_000, histogram.getMax());
+        assertEquals(50_005_000, histogram.getSum());
+        assertThat((double) histogram.percentile(0.5)).isCloseTo(5_000, within(5_000 * 0.0625));
+        assertThat((double) histogram.percentile(0.99)).isCloseTo(9_900, within(9_900 * 0.0625));
+        assertEquals(10_000, histogram.percentile(1.0));
+        assertEquals(15, histogram.countAtOrBelow(15));
+    }
+
+    @Test
+    void shouldAddTheRequestsAClosedLoopClientDidNotSend() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 99 fast responses and one stall of 100 ms, where 10 requests should have been sent every 10 ms
+        histogram.record(1000, 99);
+        histogram.record(100_000);
+        assertThat(histogram.percentile(0.99)).isLessThan(1100);
+
+        LatencyHistogram corrected = histogram.copyCorrectedForCoordinatedOmission(10_000);
+        assertEquals(109, corrected.getCount());
+        assertThat(corrected.percentile(0.99)).isGreaterThan(80_000);
+    }
+}
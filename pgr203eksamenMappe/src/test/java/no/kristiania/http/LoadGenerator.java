@@ -0,0 +1,245 @@
+package no.kristiania.http;
+
+import no.kristiania.database.PooledDataSource;
+import no.kristiania.database.Worker;
+import no.kristiania.database.WorkerDao;
+import no.kristiania.database.WorkerTask;
+import no.kristiania.database.WorkerTaskDao;
+import org.flywaydb.core.Flyway;
+import org.h2.jdbcx.JdbcDataSource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Sends a mix of requests to a server and reports throughput and latency percentiles. Run main() from the IDE:
+//
+//   --mode=closed --connections=16         each connection sends its next request when it has the response
+//   --mode=open --rate=2000 --connections=64   requests are started on a fixed schedule, whether the server keeps up or not
+//   --duration=30 --warmup=5               seconds
+//   --server=localhost:8080                use a running server. Without it an embedded server with H2 is started
+//   --mix="GET /api/workers?limit=50:40,GET /index.html:60"   routes with weights
+//
+// A closed-loop client hides stalls: while it waits for one slow response, it doesn't send the requests that
+// would also have been slow (coordinated omission). The open loop measures latency from when each request was
+// supposed to be sent, so waiting for a free connection counts. The closed loop also reports percentiles
+// corrected as if a request was due every (average response time)
+public class LoadGenerator {
+
+    private static final String DEFAULT_MIX = "GET /api/workers?limit=50:40,GET /api/taskOptions:25,POST /api/newWorker:10,GET /index.html:25";
+
+    private final String hostname;
+    private final int port;
+    private final List<Request> mix = new ArrayList<>();
+    private int totalWeight;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    // For the open loop: from when the request was actually sent, without the time waiting for a connection
+    private final LatencyHistogram serviceTime = new LatencyHistogram();
+    private final Map<String, LongAdder> requestsByRoute = new HashMap<>();
+    private final LongAdder errors = new LongAdder();
+    private volatile boolean recording;
+    // Our own client, so each load thread can keep its connection. The shared default client keeps fewer idle
+    // connections than we use, so the rest would be closed and opened again all the time
+    private final PooledHttpClient client = new PooledHttpClient();
+
+    public LoadGenerator(String hostname, int port, String mix) {
+        this.hostname = hostname;
+        this.port = port;
+        for (String entry : mix.split(",")) {
+            int colonPos = entry.lastIndexOf(':');
+            String[] request = entry.substring(0, colonPos).trim().split(" ", 2);
+            int weight = Integer.parseInt(entry.substring(colonPos + 1).trim());
+            this.mix.add(new Request(request[0], request[1], weight));
+            requestsByRoute.put(request[0] + " " + request[1], new LongAdder());
+            totalWeight += weight;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int equalsPos = arg.indexOf('=');
+            options.put(arg.substring(2, equalsPos), arg.substring(equalsPos + 1));
+        }
+        String mode = options.getOrDefault("mode", "closed");
+        int connections = Integer.parseInt(options.getOrDefault("connections", "16"));
+        int rate = Integer.parseInt(options.getOrDefault("rate", "1000"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "20"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+
+        String hostname = "localhost";
+        int port;
+        if (options.containsKey("server")) {
+            String[] server = options.get("server").split(":");
+            hostname = server[0];
+            port = Integer.parseInt(server[1]);
+        } else {
+            port = startEmbeddedServer().getPort();
+        }
+
+        LoadGenerator generator = new LoadGenerator(hostname, port, options.getOrDefault("mix", DEFAULT_MIX));
+        System.out.printf("%s loop, %d connections%s, %ds warmup + %ds against %s:%d%n", mode, connections,
+                mode.equals("open") ? " at " + rate + " requests/s" : "", warmup, duration, hostname, port);
+        if (mode.equals("open")) {
+            generator.runOpenLoop(connections, rate, warmup, duration);
+        } else {
+            generator.runClosedLoop(connections, warmup, duration);
+        }
+        generator.report(mode, duration);
+        System.exit(0);
+    }
+
+    // Like HttpServerTest.setUp, with some data so the lists are not empty
+    static HttpServer startEmbeddedServer() throws Exception {
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:load;DB_CLOSE_DELAY=-1");
+        PooledDataSource dataSource = PooledDataSource.fromProperties(h2, new Properties());
+        Flyway.configure().dataSource(dataSource).load().migrate();
+
+        WorkerTaskDao taskDao = new WorkerTaskDao(dataSource);
+        for (int i = 0; i < 20; i++) {
+            WorkerTask task = new WorkerTask();
+            task.setName("task" + i);
+            taskDao.insert(task);
+        }
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Worker worker = new Worker();
+            worker.setFirstName("Even" + i);
+            worker.setLastName("Larsen");
+            worker.setEmail("even" + i + "@even.no");
+            workers.add(worker);
+        }
+        new WorkerDao(dataSource).insertAll(workers);
+        return new HttpServer(0, dataSource);
+    }
+
+    public void runClosedLoop(int connections, int warmupSeconds, int durationSeconds) throws InterruptedException {
+        client.setMaxIdlePerHost(connections);
+        long end = System.nanoTime() + (warmupSeconds + durationSeconds) * 1_000_000_000L;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            Thread thread = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    long start = System.nanoTime();
+                    send(pick(), start, start);
+                }
+            }, "load-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        startRecordingAfter(warmupSeconds);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    // Request number i is due at start + i / rate. Whichever connection is free takes the next request,
+    // and if it is late, the wait is part of its latency
+    public void runOpenLoop(int connections, int rate, int warmupSeconds, int durationSeconds) throws InterruptedException {
+        client.setMaxIdlePerHost(connections);
+        long start = System.nanoTime();
+        long end = start + (warmupSeconds + durationSeconds) * 1_000_000_000L;
+        double interval = 1_000_000_000.0 / rate;
+        AtomicLong next = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            Thread thread = new Thread(() -> {
+                while (true) {
+                    long intended = start + (long) (next.getAndIncrement() * interval);
+                    if (intended >= end) {
+                        return;
+                    }
+                    long now;
+                    while ((now = System.nanoTime()) < intended) {
+                        LockSupport.parkNanos(intended - now);
+                    }
+                    send(pick(), intended, now);
+                }
+            }, "load-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        startRecordingAfter(warmupSeconds);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private void startRecordingAfter(int warmupSeconds) throws InterruptedException {
+        Thread.sleep(warmupSeconds * 1000L);
+        recording = true;
+    }
+
+    private Request pick() {
+        int value = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Request request : mix) {
+            value -= request.weight;
+            if (value < 0) {
+                return request;
+            }
+        }
+        return mix.get(mix.size() - 1);
+    }
+
+    private void send(Request request, long intendedStart, long actualStart) {
+        boolean failed;
+        try {
+            String body = request.method.equals("POST") ? "first_name=Load&last_name=Test&email_address=load%40even.no" : null;
+            failed = client.send(hostname, port, request.method, request.target, body).getStatusCode() >= 400;
+        } catch (Exception e) {
+            failed = true;
+        }
+        long end = System.nanoTime();
+        if (!recording) {
+            return;
+        }
+        latency.record((end - intendedStart) / 1000);
+        serviceTime.record((end - actualStart) / 1000);
+        requestsByRoute.get(request.method + " " + request.target).increment();
+        if (failed) {
+            errors.increment();
+        }
+    }
+
+    public void report(String mode, int durationSeconds) {
+        long count = latency.getCount();
+        System.out.printf("%,d requests, %,.0f requests/s, %,d errors%n", count, count / (double) durationSeconds, errors.sum());
+        for (Map.Entry<String, LongAdder> route : requestsByRoute.entrySet()) {
+            System.out.printf("  %-30s %,d%n", route.getKey(), route.getValue().sum());
+        }
+        if (mode.equals("open")) {
+            printPercentiles("latency from scheduled start", latency);
+            printPercentiles("service time (from actual send)", serviceTime);
+        } else {
+            printPercentiles("latency (as measured)", latency);
+            long averageMicros = count > 0 ? latency.getSum() / count : 0;
+            printPercentiles("latency corrected for coordinated omission", latency.copyCorrectedForCoordinatedOmission(averageMicros));
+        }
+    }
+
+    private static void printPercentiles(String name, LatencyHistogram histogram) {
+        System.out.printf("%s: p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms%n", name,
+                histogram.percentile(0.5) / 1000.0, histogram.percentile(0.99) / 1000.0,
+                histogram.percentile(0.999) / 1000.0, histogram.getMax() / 1000.0);
+    }
+
+    private static class Request {
+        private final String method;
+        private final String target;
+        private final int weight;
+
+        Request(String method, String target, int weight) {
+            this.method = method;
+            this.target = target;
+            this.weight = weight;
+        }
+    }
+}
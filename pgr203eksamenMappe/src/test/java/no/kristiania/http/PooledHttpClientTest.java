@@ -0,0 +1,254 @@
+package no.kristiania.http;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PooledHttpClientTest {
+
+    private final PooledHttpClient client = new PooledHttpClient();
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+    }
+
+    @Test
+    void shouldReuseConnection() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        AtomicInteger connections = new AtomicInteger();
+        startServer(serverSocket, connections, "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nHello");
+
+        for (int i = 0; i < 3; i++) {
+            HttpClientResponse response = client.send(new HttpClientRequest("localhost", serverSocket.getLocalPort(), "/hello"));
+            assertThat(response.getStatusCode()).isEqualTo(200);
+            assertThat(response.getResponseBody()).isEqualTo("Hello");
+        }
+        assertThat(connections.get()).isEqualTo(1);
+        assertThat(client.getIdleConnections()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldNotReuseClosedConnection() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        AtomicInteger connections = new AtomicInteger();
+        startServer(serverSocket, connections, "HTTP/1.1 200 OK\r\nContent-Length: 5\r\nConnection: close\r\n\r\nHello");
+
+        client.send(new HttpClientRequest("localhost", serverSocket.getLocalPort(), "/hello"));
+        client.send(new HttpClientRequest("localhost", serverSocket.getLocalPort(), "/hello"));
+        assertThat(connections.get()).isEqualTo(2);
+        assertThat(client.getIdleConnections()).isZero();
+    }
+
+    @Test
+    void shouldSendContentLengthInBytes() throws IOException {
+        HttpClientRequest request = new HttpClientRequest("localhost", 8080, "POST", "/api/newWorker");
+        request.setBody("first_name=Bjørn");
+
+        String sent = new String(request.toBytes(), StandardCharsets.UTF_8);
+        assertThat(sent).contains("Content-Length: 17\r\n");
+        assertThat(sent).endsWith("\r\n\r\nfirst_name=Bjørn");
+    }
+
+    @Test
+    void shouldRetryWhenServerClosedIdleConnection() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        AtomicInteger connections = new AtomicInteger();
+        // Closes the connection after the response, without telling the client
+        startServer(serverSocket, connections, "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nHello", 1);
+
+        for (int i = 0; i < 3; i++) {
+            HttpClientResponse response = client.send(new HttpClientRequest("localhost", serverSocket.getLocalPort(), "/hello"));
+            assertThat(response.getResponseBody()).isEqualTo("Hello");
+        }
+        assertThat(connections.get()).isEqualTo(3);
+    }
+
+    @Test
+    void shouldRetryOnlyOnce() throws IOException, InterruptedException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        AtomicInteger connections = new AtomicInteger();
+        startServer(serverSocket, connections, "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nHello", 1);
+
+        // Two idle connections in the pool, which the server has closed
+        HttpClientStreamingResponse first = client.sendStreaming(new HttpClientRequest("localhost", serverSocket.getLocalPort(), "/hello"));
+        HttpClientStreamingResponse second = client.sendStreaming(new HttpClientRequest("localhost", serverSocket.getLocalPort(), "/hello"));
+        first.getBody().readAllBytes();
+        second.getBody().readAllBytes();
+        first.close();
+        second.close();
+        assertThat(client.getIdleConnections()).isEqualTo(2);
+        Thread.sleep(100);
+
+        assertThatThrownBy(() -> client.send(new HttpClientRequest("localhost", serverSocket.getLocalPort(), "POST", "/hello")))
+                .isInstanceOf(IOException.class);
+        assertThat(connections.get()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldPipelineAsyncRequests() throws Exception {
+        HttpServer server = new HttpServer(0, new JdbcDataSource());
+
+        List<CompletableFuture<HttpClientResponse>> responses = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            responses.add(client.sendAsync(new HttpClientRequest("localhost", server.getPort(), "/echo?body=" + i)));
+        }
+        for (int i = 0; i < 20; i++) {
+            assertThat(responses.get(i).get(5, TimeUnit.SECONDS).getResponseBody()).isEqualTo(String.valueOf(i));
+        }
+    }
+
+    @Test
+    void shouldResendAsyncRequestsWhenServerCloses() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setMaxKeepAliveRequests(3);
+        HttpServer server = new HttpServer(0, new JdbcDataSource(), config);
+
+        List<CompletableFuture<HttpClientResponse>> responses = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            responses.add(client.sendAsync(new HttpClientRequest("localhost", server.getPort(), "/echo?body=" + i)));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertThat(responses.get(i).get(5, TimeUnit.SECONDS).getResponseBody()).isEqualTo(String.valueOf(i));
+        }
+    }
+
+    @Test
+    void shouldLimitRequestsInFlight() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0);
+        AtomicInteger requests = new AtomicInteger();
+        // Reads requests, but never answers
+        new Thread(() -> {
+            try (Socket socket = serverSocket.accept()) {
+                HttpMessageReader reader = new HttpMessageReader(socket.getInputStream());
+                while (reader.readMessage() != null) {
+                    requests.incrementAndGet();
+                }
+            } catch (IOException ignored) {
+            }
+        }).start();
+
+        client.setMaxInFlightPerHost(4);
+        for (int i = 0; i < 10; i++) {
+            client.sendAsync(new HttpClientRequest("localhost", serverSocket.getLocalPort(), "/hello"));
+        }
+        Thread.sleep(200);
+        assertThat(requests.get()).isEqualTo(4);
+    }
+
+    @Test
+    void shouldStreamChunkedBody() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        AtomicInteger connections = new AtomicInteger();
+        startServer(serverSocket, connections, "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nHello\r\n6;ext=1\r\n world\r\n0\r\n\r\n");
+
+        for (int i = 0; i < 2; i++) {
+            try (HttpClientStreamingResponse response = client.sendStreaming(new HttpClientRequest("localhost", serverSocket.getLocalPort(), "/hello"))) {
+                assertThat(new String(response.getBody().readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("Hello world");
+            }
+        }
+        assertThat(connections.get()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldCopyLargeBodyToFile(@TempDir Path tempDir) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        AtomicInteger connections = new AtomicInteger();
+        String body = "x".repeat(1024 * 1024);
+        startServer(serverSocket, connections, "HTTP/1.1 200 OK\r\nContent-Length: " + body.length() + "\r\n\r\n" + body);
+
+        Path file = tempDir.resolve("export.txt");
+        try (HttpClientStreamingResponse response = client.sendStreaming(new HttpClientRequest("localhost", serverSocket.getLocalPort(), "/export"))) {
+            Files.copy(response.getBody(), file);
+        }
+        assertThat(Files.size(file)).isEqualTo(body.length());
+        assertThat(client.getIdleConnections()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldCloseConnectionWhenBodyIsNotRead() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        AtomicInteger connections = new AtomicInteger();
+        startServer(serverSocket, connections, "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nHello");
+
+        try (HttpClientStreamingResponse response = client.sendStreaming(new HttpClientRequest("localhost", serverSocket.getLocalPort(), "/hello"))) {
+            assertThat(response.getBody().read()).isEqualTo('H');
+        }
+        assertThat(client.getIdleConnections()).isZero();
+    }
+
+    @Test
+    void shouldReadBodyUntilConnectionCloses() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        AtomicInteger connections = new AtomicInteger();
+        startServer(serverSocket, connections, "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n\r\nHello+world%21", 1);
+
+        HttpClientResponse response = client.send(new HttpClientRequest("localhost", serverSocket.getLocalPort(), "/hello"));
+        // Responses are not URL-decoded
+        assertThat(response.getResponseBody()).isEqualTo("Hello+world%21");
+        assertThat(client.getIdleConnections()).isZero();
+    }
+
+    @Test
+    void shouldReuseConnectionAfterHead() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        AtomicInteger connections = new AtomicInteger();
+        // The Content-Length of a HEAD response is the size the body would have had
+        startServer(serverSocket, connections, "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\n");
+
+        for (int i = 0; i < 2; i++) {
+            HttpClientResponse response = client.send(new HttpClientRequest("localhost", serverSocket.getLocalPort(), "HEAD", "/hello"));
+            assertThat(response.getResponseHeader("Content-Length")).isEqualTo("5");
+            assertThat(response.getResponseBody()).isEmpty();
+        }
+        assertThat(connections.get()).isEqualTo(1);
+    }
+
+    private static void startServer(ServerSocket serverSocket, AtomicInteger connections, String response) {
+        startServer(serverSocket, connections, response, Integer.MAX_VALUE);
+    }
+
+    // Answers every request on a connection with the same response, until the client closes it
+    // or maxRequests have been answered
+    private static void startServer(ServerSocket serverSocket, AtomicInteger connections, String response, int maxRequests) {
+        new Thread(() -> {
+            while (true) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+                    new Thread(() -> {
+                        try (socket) {
+                            HttpMessageReader reader = new HttpMessageReader(socket.getInputStream());
+                            int requests = 0;
+                            while (reader.readMessage() != null) {
+                                socket.getOutputStream().write(response.getBytes(StandardCharsets.UTF_8));
+                                if (++requests >= maxRequests || response.contains("Connection: close")) {
+                                    return;
+                                }
+                            }
+                        } catch (IOException ignored) {
+                        }
+                    }).start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }).start();
+    }
+}
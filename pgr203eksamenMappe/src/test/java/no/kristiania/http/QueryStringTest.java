@@ -1,6 +1,9 @@
 package no.kristiania.http;
 
 import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 public class QueryStringTest {
@@ -28,4 +31,11 @@ public class QueryStringTest {
         assertEquals("200", queryString.getParameter("status"));
         assertEquals("Hello", queryString.getParameter("text"));
     }
-}
\ No newline at end of file
+    @Test
+    void shouldHandleRepeatedParameters() {
+        QueryString queryString = new QueryString("workerId=1&taskId=3&workerId=2");
+        assertEquals(List.of("1", "2"), queryString.getParameterValues("workerId"));
+        assertEquals("2", queryString.getParameter("workerId"));
+        assertEquals(List.of(), queryString.getParameterValues("version"));
+    }
+}
@@ -0,0 +1,69 @@
+package no.kristiania.http;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ResourceCacheTest {
+
+    @Test
+    void shouldLoadClasspathResourceOnce() throws IOException {
+        ResourceCache cache = new ResourceCache();
+        ResourceCache.Resource resource = cache.get("/index.html");
+        assertSame(resource, cache.get("/index.html"));
+        assertEquals("text/html", resource.getContentType());
+        assertNull(cache.get("/missing.html"));
+    }
+
+    @Test
+    void shouldKnowCommonContentTypes() throws IOException {
+        assertEquals("image/x-icon", new ResourceCache().get("/favicon.ico").getContentType());
+        assertEquals("application/javascript", ResourceCache.contentType("/app.js"));
+        assertEquals("text/css", ResourceCache.contentType("/style.css"));
+        assertEquals("application/json", ResourceCache.contentType("/data.json"));
+        assertEquals("text/plain", ResourceCache.contentType("/README"));
+    }
+
+    @Test
+    void shouldMatchEtags() throws IOException {
+        ResourceCache.Resource resource = new ResourceCache().get("/index.html");
+        assertThat(resource.matches(resource.getEtag())).isTrue();
+        assertThat(resource.matches("\"other\", W/" + resource.getEtag())).isTrue();
+        assertThat(resource.matches("*")).isTrue();
+        assertThat(resource.matches("\"other\"")).isFalse();
+        assertThat(resource.matches(null)).isFalse();
+    }
+
+    @Test
+    void shouldReloadChangedFilesInDevMode(@TempDir Path contentDirectory) throws Exception {
+        Files.writeString(contentDirectory.resolve("page.html"), "<h1>first</h1>");
+        ResourceCache cache = new ResourceCache(contentDirectory);
+        ResourceCache.Resource first = cache.get("/page.html");
+        assertEquals("<h1>first</h1>", new String(first.getContent()));
+
+        Files.writeString(contentDirectory.resolve("page.html"), "<h1>second</h1>");
+        ResourceCache.Resource second = first;
+        for (int i = 0; i < 100 && second == first; i++) {
+            Thread.sleep(50);
+            second = cache.get("/page.html");
+        }
+        assertEquals("<h1>second</h1>", new String(second.getContent()));
+        assertThat(second.getEtag()).isNotEqualTo(first.getEtag());
+    }
+
+    @Test
+    void shouldNotServeFilesOutsideContentDirectory(@TempDir Path contentDirectory) throws IOException {
+        Files.createDirectory(contentDirectory.resolve("public"));
+        Files.writeString(contentDirectory.resolve("secret.txt"), "secret");
+        ResourceCache cache = new ResourceCache(contentDirectory.resolve("public"));
+        assertNull(cache.get("/../secret.txt"));
+    }
+}
@@ -0,0 +1,48 @@
+package no.kristiania.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCompressorTest {
+
+    private final ResponseCompressor compressor = new ResponseCompressor(true, 1024);
+
+    @Test
+    void shouldPickTheEncodingTheClientPrefers() {
+        assertEquals("gzip", compressor.negotiate("gzip, deflate, br"));
+        assertEquals("deflate", compressor.negotiate("gzip;q=0.5, deflate"));
+        assertEquals("gzip", compressor.negotiate("*"));
+        assertEquals("deflate", compressor.negotiate("gzip;q=0, *;q=1"));
+        assertEquals("deflate", compressor.negotiate("gzip;q=0.5, *"));
+        assertNull(compressor.negotiate("gzip;q=0, deflate;q=0, *"));
+        assertEquals("gzip", compressor.negotiate("br, *;q=0.1"));
+        assertNull(compressor.negotiate("gzip;q=0, br"));
+        assertNull(compressor.negotiate("identity"));
+        assertNull(compressor.negotiate(null));
+        assertNull(new ResponseCompressor(false, 0).negotiate("gzip"));
+    }
+
+    @Test
+    void shouldOnlyCompressLargeTextBodies() {
+        HttpMessage request = new HttpMessage();
+        request.getHeaders().put("Accept-Encoding", "gzip");
+        assertEquals("gzip", compressor.chooseEncoding(request, "text/html", 2000));
+        assertEquals("gzip", compressor.chooseEncoding(request, null, 2000));
+        assertNull(compressor.chooseEncoding(request, "text/html", 100));
+        assertNull(compressor.chooseEncoding(request, "image/png", 2000));
+    }
+
+    @Test
+    void shouldCompressWithDeflate() throws IOException {
+        byte[] content = "<li>Name: Even Larsen</li>".repeat(100).getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = ResponseCompressor.compress(content, "deflate");
+        assertTrue(compressed.length < content.length);
+        assertArrayEquals(content, new InflaterInputStream(new ByteArrayInputStream(compressed)).readAllBytes());
+    }
+}
@@ -0,0 +1,70 @@
+package no.kristiania.http;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RouterTest {
+
+    private final HttpController workers = (request, socket) -> {};
+    private final HttpController newWorker = (request, socket) -> {};
+    private final HttpController worker = (request, socket) -> {};
+    private final HttpController importWorkers = (request, socket) -> {};
+    private final Router router = new Router()
+            .add("GET", "/api/workers", workers)
+            .add("POST", "/api/workers", newWorker)
+            .add("GET", "/api/workers/{id}", worker)
+            .add("POST", "/api/workers/import", importWorkers)
+            .add("GET", "/api/workers/{id}/tasks/{taskId}", worker);
+    private final int[] parameterBounds = new int[Router.MAX_PARAMETERS * 2];
+
+    @Test
+    void shouldRouteByPathAndMethod() {
+        Router.Route route = find("GET /api/workers?limit=5 HTTP/1.1");
+        assertEquals("/api/workers", route.getPattern());
+        assertEquals(workers, route.getController(Router.indexOf("GET", 0, 3)));
+        assertEquals(workers, route.getController(Router.indexOf("HEAD", 0, 4)));
+        assertEquals(newWorker, route.getController(Router.indexOf("POST", 0, 4)));
+        assertNull(route.getController(Router.indexOf("DELETE", 0, 6)));
+        assertEquals("GET, HEAD, POST", route.getAllowedMethods());
+    }
+
+    @Test
+    void shouldFindPathParameters() {
+        String line = "GET /api/workers/42/tasks/7 HTTP/1.1";
+        Router.Route route = find(line);
+        assertEquals("/api/workers/{id}/tasks/{taskId}", route.getPattern());
+        assertEquals("42", line.substring(parameterBounds[0], parameterBounds[1]));
+        assertEquals("7", line.substring(parameterBounds[2], parameterBounds[3]));
+
+        assertEquals("/api/workers/{id}", find("GET /api/workers/42 HTTP/1.1").getPattern());
+        // A fixed segment is preferred to a parameter
+        assertEquals("/api/workers/import", find("POST /api/workers/import HTTP/1.1").getPattern());
+    }
+
+    @Test
+    void shouldNotFindUnknownPaths() {
+        assertNull(find("GET /api HTTP/1.1"));
+        assertNull(find("GET /api/workers/ HTTP/1.1"));
+        assertNull(find("GET /api/workers/42/tasks HTTP/1.1"));
+        assertNull(find("GET /index.html HTTP/1.1"));
+        assertNull(find("GET * HTTP/1.1"));
+    }
+
+    @Test
+    void shouldRejectConflictingRoutes() {
+        assertThrows(IllegalArgumentException.class, () -> router.add("GET", "/api/workers/{workerId}", worker));
+        assertThrows(IllegalArgumentException.class, () -> router.add("BREW", "/coffee", worker));
+        assertThat(new Router().add("GET", "/", worker).find("GET / HTTP/1.1", 4, 5, parameterBounds)).isNotNull();
+    }
+
+    private Router.Route find(String line) {
+        int start = line.indexOf(' ') + 1;
+        int end = line.indexOf(' ', start);
+        int questionPos = line.indexOf('?', start);
+        return router.find(line, start, questionPos != -1 && questionPos < end ? questionPos : end, parameterBounds);
+    }
+}
@@ -0,0 +1,56 @@
+package no.kristiania.http;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class StaticFileHandlerTest {
+
+    @Test
+    void shouldParseByteRanges() {
+        assertThat(StaticFileHandler.parseRange("bytes=0-99", 1000)).containsExactly(0, 99);
+        assertThat(StaticFileHandler.parseRange("bytes=900-", 1000)).containsExactly(900, 999);
+        assertThat(StaticFileHandler.parseRange("bytes=-100", 1000)).containsExactly(900, 999);
+        assertThat(StaticFileHandler.parseRange("bytes=500-5000", 1000)).containsExactly(500, 999);
+        assertThat(StaticFileHandler.parseRange("bytes=-5000", 1000)).containsExactly(0, 999);
+    }
+
+    @Test
+    void shouldRejectUnsatisfiableRanges() {
+        assertNull(StaticFileHandler.parseRange("bytes=1000-", 1000));
+        assertNull(StaticFileHandler.parseRange("bytes=1000-2000", 1000));
+        assertNull(StaticFileHandler.parseRange("bytes=-0", 1000));
+    }
+
+    @Test
+    void shouldFailWhenFileIsTruncatedWhileSending(@TempDir Path tempDir) throws IOException {
+        Path file = tempDir.resolve("file.txt");
+        Files.writeString(file, "x".repeat(100));
+        FileRegion region = new FileRegion(FileChannel.open(file, StandardOpenOption.READ), 0, 200);
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        assertThatThrownBy(() -> region.transferTo(Channels.newChannel(target)))
+                .isInstanceOf(EOFException.class);
+        assertThat(target.size()).isEqualTo(100);
+    }
+
+    @Test
+    void shouldIgnoreRangesWeDontSupport() {
+        assertThat(StaticFileHandler.parseRange("bytes=0-1,5-6", 1000)).isEmpty();
+        assertThat(StaticFileHandler.parseRange("lines=1-2", 1000)).isEmpty();
+        assertThat(StaticFileHandler.parseRange("bytes=abc-", 1000)).isEmpty();
+        assertThat(StaticFileHandler.parseRange("bytes=10-5", 1000)).isEmpty();
+        assertThat(StaticFileHandler.parseRange("bytes=2000-5", 1000)).isEmpty();
+    }
+}